@@ -0,0 +1,61 @@
+package autostepper.bench;
+
+import ddf.minim.analysis.BeatDetect;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * BeatDetect.detect on consecutive 512 sample buffers, the way AutoStepper feeds it,
+ * with the two sensitivities AutoStepper adds.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BeatDetectBenchmark {
+
+    private static final int BUFFER_SIZE = 512;
+    // ten seconds of signal, so the energy histories are always full of real values
+    private static final int BUFFERS = (int) (Signals.SAMPLE_RATE * 10 / BUFFER_SIZE);
+
+    @Param({"FREQ_ENERGY", "SOUND_ENERGY"})
+    public String mode;
+
+    private BeatDetect detect;
+    private BeatDetect.Sensitivity many;
+    private float[][] buffers;
+    private int next;
+
+    @Setup
+    public void setup() {
+        int algo = mode.equals("FREQ_ENERGY") ? BeatDetect.FREQ_ENERGY : BeatDetect.SOUND_ENERGY;
+        detect = new BeatDetect(algo, BUFFER_SIZE, Signals.SAMPLE_RATE);
+        many = detect.addSensitivity(0.05);
+        detect.addSensitivity(60f / 170f);
+        float[] music = Signals.music(BUFFERS * BUFFER_SIZE);
+        buffers = new float[BUFFERS][BUFFER_SIZE];
+        for (int i = 0; i < BUFFERS; i++) {
+            System.arraycopy(music, i * BUFFER_SIZE, buffers[i], 0, BUFFER_SIZE);
+        }
+    }
+
+    @Benchmark
+    public void detect(Blackhole bh) {
+        detect.detect(buffers[next]);
+        next = (next + 1) % BUFFERS;
+        bh.consume(many.isOnset());
+    }
+}
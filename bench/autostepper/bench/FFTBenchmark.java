@@ -0,0 +1,60 @@
+package autostepper.bench;
+
+import ddf.minim.analysis.FFT;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * FFT.forward on one buffer of music, at the sizes analysis uses and around them,
+ * with the scalar loops and with the Vector API ones. The backend is picked once per
+ * JVM, and JMH forks a JVM per parameter combination, so each run gets the one asked for.
+ */
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FFTBenchmark {
+
+    @Param({"256", "512", "1024", "2048", "4096"})
+    public int size;
+
+    // the bench profile picks which ones run: only scalar, unless the vector profile is on too
+    @Param({"scalar", "vector"})
+    public String backend;
+
+    private FFT fft;
+    private float[] samples;
+
+    @Setup
+    public void setup() throws ClassNotFoundException {
+        if ("vector".equals(backend)) {
+            // only built by the vector profile; without it FFT would quietly fall back to the scalar
+            // loops and report them as vector, so asking for it anyway (-p backend=vector) fails
+            Class.forName("ddf.minim.analysis.VectorFFTKernels", false, FFT.class.getClassLoader());
+        }
+        System.setProperty("minim.fft.backend", backend);
+        fft = new FFT(size, Signals.SAMPLE_RATE);
+        // the linear averages are vectorized too
+        fft.linAverages(size / 32);
+        samples = Signals.music(size);
+    }
+
+    @Benchmark
+    public void forward(Blackhole bh) {
+        fft.forward(samples);
+        bh.consume(fft.getBand(1));
+    }
+}
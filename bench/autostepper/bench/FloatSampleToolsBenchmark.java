@@ -0,0 +1,65 @@
+package autostepper.bench;
+
+import ddf.minim.javasound.FloatSampleTools;
+import java.util.concurrent.TimeUnit;
+import javax.sound.sampled.AudioFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Converting one decoder read of stereo PCM (4096 frames) to float channels. */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FloatSampleToolsBenchmark {
+
+    private static final int FRAMES = 4096;
+    private static final int CHANNELS = 2;
+
+    @Param({"16", "24"})
+    public int bits;
+
+    private AudioFormat format;
+    private byte[] pcm;
+    private Object[] channels;
+    private float[][] deinterleaved;
+    private float[] mono;
+
+    @Setup
+    public void setup() {
+        format = new AudioFormat(Signals.SAMPLE_RATE, bits, CHANNELS, true, false);
+        pcm = Signals.pcm(FRAMES, CHANNELS, bits);
+        channels = new Object[] { new float[FRAMES], new float[FRAMES] };
+        deinterleaved = new float[CHANNELS][FRAMES];
+        mono = new float[FRAMES];
+    }
+
+    @Benchmark
+    public Object[] byte2float() {
+        FloatSampleTools.byte2float(pcm, 0, channels, 0, FRAMES, format);
+        return channels;
+    }
+
+    @Benchmark
+    public float[][] byte2floatDeinterleave() {
+        FloatSampleTools.byte2floatDeinterleave(pcm, 0, deinterleaved, CHANNELS, 0, FRAMES, format);
+        return deinterleaved;
+    }
+
+    @Benchmark
+    public float[] byte2floatMono() {
+        FloatSampleTools.byte2floatMono(pcm, 0, mono, 0, FRAMES, format);
+        return mono;
+    }
+}
@@ -0,0 +1,51 @@
+package autostepper.bench;
+
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic test signals, so every run of a benchmark sees the same input.
+ * Roughly music shaped: a bass line, a few tones, a kick-like click every half
+ * second at 44.1 kHz and some noise.
+ */
+final class Signals {
+
+    static final float SAMPLE_RATE = 44100f;
+    private static final long SEED = 0x5eed5eedL;
+
+    private Signals() {}
+
+    static float[] music(int length) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        float[] samples = new float[length];
+        int beat = (int) (SAMPLE_RATE / 2);
+        for (int i = 0; i < length; i++) {
+            double t = i / (double) SAMPLE_RATE;
+            double v = 0.3 * Math.sin(2 * Math.PI * 55 * t)
+                     + 0.2 * Math.sin(2 * Math.PI * 440 * t)
+                     + 0.1 * Math.sin(2 * Math.PI * 3520 * t);
+            int sinceBeat = i % beat;
+            if (sinceBeat < 2000) v += 0.4 * Math.exp(-sinceBeat / 300.0) * Math.sin(2 * Math.PI * 80 * t);
+            v += 0.05 * (random.nextDouble() * 2 - 1);
+            samples[i] = (float) Math.max(-1, Math.min(1, v));
+        }
+        return samples;
+    }
+
+    /** Interleaved little endian signed PCM with the same signal in every channel. */
+    static byte[] pcm(int frames, int channels, int bits) {
+        float[] signal = music(frames);
+        int bytes = bits / 8;
+        byte[] pcm = new byte[frames * channels * bytes];
+        long scale = (1L << (bits - 1)) - 1;
+        int p = 0;
+        for (int i = 0; i < frames; i++) {
+            long value = Math.round(signal[i] * scale);
+            for (int c = 0; c < channels; c++) {
+                for (int b = 0; b < bytes; b++) {
+                    pcm[p++] = (byte) (value >> (8 * b));
+                }
+            }
+        }
+        return pcm;
+    }
+}
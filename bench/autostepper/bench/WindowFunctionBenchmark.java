@@ -0,0 +1,50 @@
+package autostepper.bench;
+
+import ddf.minim.analysis.FourierTransform;
+import ddf.minim.analysis.WindowFunction;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** WindowFunction.apply on a 1024 sample buffer, for every window FourierTransform offers. */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WindowFunctionBenchmark {
+
+    private static final int SIZE = 1024;
+
+    @Param({"NONE", "HAMMING", "HANN", "COSINE", "TRIANGULAR", "BARTLETT", "BARTLETTHANN", "LANCZOS", "BLACKMAN", "GAUSS"})
+    public String window;
+
+    private WindowFunction function;
+    private float[] music;
+    private float[] samples;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        function = (WindowFunction) FourierTransform.class.getField(window).get(null);
+        music = Signals.music(SIZE);
+        samples = new float[SIZE];
+    }
+
+    @Benchmark
+    public float[] apply() {
+        // apply works in place, so start from the same samples every time
+        System.arraycopy(music, 0, samples, 0, SIZE);
+        function.apply(samples);
+        return samples;
+    }
+}
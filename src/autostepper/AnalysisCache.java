@@ -0,0 +1,157 @@
+package autostepper;
+
+import gnu.trove.list.array.TFloatArrayList;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Keeps the results of beat detection on disk, so that regenerating the charts of a
+ * song that has already been analyzed (another seed, hard mode, updatesm) doesn't
+ * decode and analyze it again. Each entry is one small binary file named after the
+ * song's content hash and a fingerprint of the analysis parameters, and is read back
+ * through a memory mapping.
+ * <p>
+ * Bump {@link #VERSION} whenever the analysis itself changes, so old entries are
+ * ignored instead of producing charts the current code wouldn't.
+ */
+final class AnalysisCache {
+
+    private static final int MAGIC = 0x41534643; // "ASFC"
+    private static final int VERSION = 1;
+    private static final int LISTS = 11;
+
+    /** What performBeatDetection produces, and all that chart generation needs from the audio. */
+    static final class Features {
+        final TFloatArrayList[] manyTimes;
+        final TFloatArrayList[] fewTimes;
+        final TFloatArrayList midFFTAmount;
+        final TFloatArrayList midFFTMaxes;
+        final TFloatArrayList onsetStrengths;
+        final float timePerSample;
+        final float songTime;
+
+        @SuppressWarnings("java:S00107")
+        Features(TFloatArrayList[] manyTimes, TFloatArrayList[] fewTimes, TFloatArrayList midFFTAmount,
+                 TFloatArrayList midFFTMaxes, TFloatArrayList onsetStrengths, float timePerSample, float songTime) {
+            this.manyTimes = manyTimes;
+            this.fewTimes = fewTimes;
+            this.midFFTAmount = midFFTAmount;
+            this.midFFTMaxes = midFFTMaxes;
+            this.onsetStrengths = onsetStrengths;
+            this.timePerSample = timePerSample;
+            this.songTime = songTime;
+        }
+
+        private TFloatArrayList[] lists() {
+            return new TFloatArrayList[] {
+                manyTimes[0], manyTimes[1], manyTimes[2], manyTimes[3],
+                fewTimes[0], fewTimes[1], fewTimes[2], fewTimes[3],
+                midFFTAmount, midFFTMaxes, onsetStrengths
+            };
+        }
+    }
+
+    private final File directory;
+
+    AnalysisCache(File directory) {
+        this.directory = directory;
+    }
+
+    /** Identifies the analysis settings; entries made with other settings are never used. */
+    static long fingerprint(int fftSize, float bpmSensitivity, float maxBpm, float seconds) {
+        long h = VERSION;
+        h = h * 31 + fftSize;
+        h = h * 31 + Float.floatToIntBits(bpmSensitivity);
+        h = h * 31 + Float.floatToIntBits(maxBpm);
+        h = h * 31 + Float.floatToIntBits(seconds);
+        return h;
+    }
+
+    /** The cached features, or null if there are none for this song and these settings. */
+    Features load(byte[] digest, long fingerprint) throws IOException {
+        File file = entry(digest, fingerprint);
+        if (!file.isFile()) return null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.remaining() < headerSize() || map.getInt() != MAGIC || map.getInt() != VERSION) return null;
+            byte[] storedDigest = new byte[digest.length];
+            map.get(storedDigest);
+            if (!Arrays.equals(storedDigest, digest) || map.getLong() != fingerprint) return null;
+            float timePerSample = map.getFloat();
+            float songTime = map.getFloat();
+            TFloatArrayList[] lists = new TFloatArrayList[LISTS];
+            for (int i = 0; i < LISTS; i++) {
+                if (map.remaining() < 4) return null;
+                int count = map.getInt();
+                if (count < 0 || map.remaining() < count * 4L) return null;
+                float[] values = new float[count];
+                FloatBuffer floats = map.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+                floats.get(values);
+                map.position(map.position() + count * 4);
+                lists[i] = TFloatArrayList.wrap(values);
+            }
+            return new Features(
+                    new TFloatArrayList[] { lists[0], lists[1], lists[2], lists[3] },
+                    new TFloatArrayList[] { lists[4], lists[5], lists[6], lists[7] },
+                    lists[8], lists[9], lists[10], timePerSample, songTime);
+        }
+    }
+
+    /** Writes the features for this song and these settings, replacing any older entry. */
+    void store(byte[] digest, long fingerprint, Features features) throws IOException {
+        TFloatArrayList[] lists = features.lists();
+        long size = headerSize();
+        for (TFloatArrayList list : lists) size += 4 + 4L * list.size();
+        ByteBuffer out = ByteBuffer.allocate(Math.toIntExact(size)).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC).putInt(VERSION).put(digest).putLong(fingerprint);
+        out.putFloat(features.timePerSample).putFloat(features.songTime);
+        for (TFloatArrayList list : lists) {
+            out.putInt(list.size());
+            for (int i = 0; i < list.size(); i++) out.putFloat(list.getQuick(i));
+        }
+        out.flip();
+
+        Files.createDirectories(directory.toPath());
+        Path target = entry(digest, fingerprint).toPath();
+        // write next to the entry and move it in place, so a reader on another
+        // thread or a killed run never sees half a file
+        Path temp = Files.createTempFile(directory.toPath(), target.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (out.hasRemaining()) channel.write(out);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private File entry(byte[] digest, long fingerprint) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : digest) name.append(String.format("%02x", b & 0xff));
+        name.append('-').append(Long.toHexString(fingerprint)).append(".features");
+        return new File(directory, name.toString());
+    }
+
+    private static int headerSize() {
+        // magic, version, SHA-256 digest, fingerprint, timePerSample, songTime
+        return 4 + 4 + 32 + 8 + 4 + 4;
+    }
+}
@@ -0,0 +1,286 @@
+package autostepper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the artwork found for each search term on disk, so the songs of one album
+ * search once instead of once per track. Images are stored once per content, named
+ * after their hash, and linked into the song folders; a term that found nothing is
+ * remembered for {@link #MISS_TTL_MILLIS} before it is searched again. When the
+ * images grow past {@link #MAX_BYTES} the least recently used ones are deleted;
+ * an image still linked into a song folder takes no space of its own, so it
+ * neither counts nor gets deleted.
+ * A search that failed, rather than found nothing, is only remembered for
+ * {@link #FAILURE_TTL_MILLIS}, so the songs of a run don't each wait for a dead
+ * connection but the next run tries again.
+ * <p>
+ * Layout: <code>images/&lt;sha256 of the image&gt;.png</code> next to an empty
+ * <code>.used</code> file dated by the image's last use (not the image itself,
+ * which shares its date with every link to it), and per search term
+ * <code>terms/&lt;sha256 of the term&gt;</code> holding either <code>hit</code> and
+ * the image's hash, <code>miss</code> or <code>failed</code>, dated by the file's
+ * modification time.
+ */
+final class ArtworkCache {
+
+    private static final Logger logger = Logger.getLogger(ArtworkCache.class.getName());
+
+    static final long MAX_BYTES = 64L * 1024 * 1024;
+    static final long MISS_TTL_MILLIS = 24L * 60 * 60 * 1000;
+    static final long FAILURE_TTL_MILLIS = 10L * 60 * 1000;
+
+    private static final String HIT = "hit ";
+    private static final String MISS = "miss";
+    private static final String FAILED = "failed";
+
+    /** Looks up the artwork for a term. */
+    interface Search {
+        /** Saves the artwork for term to destination; false if the search found none. */
+        boolean save(String term, File destination) throws IOException;
+    }
+
+    // searches running in this process, so parallel songs of one album wait for
+    // the first one's result instead of all searching at the same time
+    private static final ConcurrentHashMap<String, CompletableFuture<String>> searching = new ConcurrentHashMap<>();
+    private static final Object evictionLock = new Object();
+
+    private final Path images;
+    private final Path terms;
+    private final long maxBytes;
+
+    ArtworkCache(File directory) {
+        this(directory, MAX_BYTES);
+    }
+
+    ArtworkCache(File directory, long maxBytes) {
+        this.images = new File(directory, "images").toPath();
+        this.terms = new File(directory, "terms").toPath();
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The cached artwork for term, calling search with the term and a file to save
+     * into only when the cache has no answer for it yet; null if there is none.
+     * Nothing outside the cache is written, that is left to {@link #place}.
+     */
+    Path find(String term, Search search) {
+        String key = normalize(term);
+        try {
+            Files.createDirectories(images);
+            Files.createDirectories(terms);
+            String image = lookup(key);
+            if (image == null) image = searchOnce(key, term, search);
+            return image.isEmpty() ? null : image(image);
+        } catch (IOException e) {
+            logger.warning(String.format("Artwork cache failed for \"%s\": %s", term, e.getMessage()));
+            return null;
+        }
+    }
+
+    /** Links, or copies, artwork found by {@link #find} to target. Returns whether that worked. */
+    static boolean place(Path image, File target) {
+        try {
+            try {
+                Files.createLink(target.toPath(), image);
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                // another file system, or one without links
+                Files.copy(image, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            // evicted since it was found, most likely
+            logger.warning(String.format("Could not put the artwork at %s: %s", target, e.getMessage()));
+            return false;
+        }
+    }
+
+    /** Lowercase, trimmed, single spaces: the same album tagged slightly differently is one entry. */
+    static String normalize(String term) {
+        return term.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    // the hash of the cached image, "" for a recent miss or failure, null when unknown or stale
+    private String lookup(String key) throws IOException {
+        Path entry = terms.resolve(hex(sha256(key.getBytes(StandardCharsets.UTF_8))));
+        String content;
+        try {
+            content = Files.readString(entry, StandardCharsets.UTF_8).trim();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (content.equals(MISS) || content.equals(FAILED)) {
+            long age = System.currentTimeMillis() - Files.getLastModifiedTime(entry).toMillis();
+            return age < (content.equals(MISS) ? MISS_TTL_MILLIS : FAILURE_TTL_MILLIS) ? "" : null;
+        }
+        if (!content.startsWith(HIT)) return null;
+        String image = content.substring(HIT.length());
+        if (!Files.exists(image(image))) return null; // evicted
+        markUsed(image);
+        if (AutoStepper.isStepDebug() && logger.isLoggable(Level.FINE)) logger.fine(String.format("Artwork cache hit: %s", key));
+        return image;
+    }
+
+    private String searchOnce(String key, String term, Search search) throws IOException {
+        String flight = images + "\n" + key;
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> running = searching.putIfAbsent(flight, mine);
+        if (running != null) return running.join();
+        String image = "";
+        try {
+            image = search(key, term, search);
+        } finally {
+            mine.complete(image);
+            searching.remove(flight, mine);
+        }
+        return image;
+    }
+
+    private String search(String key, String term, Search search) throws IOException {
+        // not createTempFile: that file would be private to this user, and the song
+        // folders get links to it
+        Path temp = images.resolve("search-" + UUID.randomUUID() + ".tmp");
+        try {
+            boolean found;
+            try {
+                found = search.save(term, temp.toFile());
+                if (found && (!Files.isRegularFile(temp) || Files.size(temp) == 0)) throw new IOException("empty image");
+            } catch (IOException | RuntimeException e) {
+                // no answer either way, so only kept long enough for the rest of the run;
+                // runtime exceptions too, from a page the parser didn't expect, say
+                logger.warning(String.format("Artwork search failed for \"%s\": %s", term, e));
+                store(key, FAILED);
+                return "";
+            }
+            if (!found) {
+                store(key, MISS);
+                return "";
+            }
+            String image = hex(SongHash.digest(temp.toFile()));
+            Path stored = image(image);
+            boolean added = !Files.exists(stored);
+            if (added) move(temp, stored);
+            markUsed(image);
+            if (added) evict();
+            store(key, HIT + image);
+            return image;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void store(String key, String content) throws IOException {
+        Path entry = terms.resolve(hex(sha256(key.getBytes(StandardCharsets.UTF_8))));
+        // written next to the entry and moved in place, like the analysis cache
+        Path temp = Files.createTempFile(terms, entry.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(temp, content, StandardCharsets.UTF_8);
+            move(temp, entry);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // drops the least recently used images until the rest fit; the terms that
+    // pointed at them find nothing and search again
+    private void evict() throws IOException {
+        synchronized (evictionLock) {
+            List<Path> stored = new ArrayList<>();
+            try (Stream<Path> files = Files.list(images)) {
+                files.filter(p -> p.getFileName().toString().endsWith(".png")).forEach(stored::add);
+            }
+            long total = 0;
+            List<long[]> usage = new ArrayList<>();
+            for (int i = 0; i < stored.size(); i++) {
+                Path p = stored.get(i);
+                // a song folder links to it: deleting it would free nothing
+                if (links(p) > 1) continue;
+                long size = Files.size(p);
+                total += size;
+                usage.add(new long[] { lastUse(p), size, i });
+            }
+            if (total <= maxBytes) return;
+            usage.sort(Comparator.comparingLong(u -> u[0]));
+            for (long[] u : usage) {
+                if (total <= maxBytes) break;
+                Path p = stored.get((int) u[2]);
+                if (AutoStepper.isStepDebug() && logger.isLoggable(Level.FINE)) logger.fine(String.format("Artwork cache evicting %s", p.getFileName()));
+                Files.deleteIfExists(p);
+                Files.deleteIfExists(used(p));
+                total -= u[1];
+            }
+        }
+    }
+
+    private void markUsed(String image) throws IOException {
+        Files.write(used(image(image)), new byte[0]);
+    }
+
+    private static long lastUse(Path image) throws IOException {
+        try {
+            return Files.getLastModifiedTime(used(image)).toMillis();
+        } catch (NoSuchFileException e) {
+            // stored by an older version, before there were .used files
+            return Files.getLastModifiedTime(image).toMillis();
+        }
+    }
+
+    // how many names the file has; 1 where the file system can't tell
+    private static int links(Path image) throws IOException {
+        try {
+            return (Integer) Files.getAttribute(image, "unix:nlink");
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return 1;
+        }
+    }
+
+    private Path image(String image) {
+        return images.resolve(image + ".png");
+    }
+
+    private static Path used(Path image) {
+        String name = image.getFileName().toString();
+        return image.resolveSibling(name.substring(0, name.length() - ".png".length()) + ".used");
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : digest) name.append(String.format("%02x", b & 0xff));
+        return name.toString();
+    }
+}
@@ -5,12 +5,19 @@ import ddf.minim.Minim;
 import ddf.minim.MultiChannelBuffer;
 import ddf.minim.analysis.BeatDetect;
 import ddf.minim.analysis.FFT;
-import ddf.minim.spi.AudioRecordingStream;
+import ddf.minim.spi.AudioDecoder;
 import gnu.trove.list.array.TFloatArrayList;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sound.sampled.AudioFileFormat;
@@ -21,28 +28,8 @@ import javax.sound.sampled.UnsupportedAudioFileException;
 public class AutoStepper {
     
     private static boolean stepDebug = false;
-    private static float maxBpm = 170f;
-    private static float minBpm = 70f;
-    private static float bpmSensitivity = 0.05f;
-    private static float startSync = 0.0f;
-    private static double tapSync = -0.11;
-    private static boolean useTapper = false;
-    private static boolean hardMode = false;
-    private static boolean updateSm = false;
-    private static boolean downloadImages = true;
-    private static float clearance = 0.0f;
     
     public static boolean isStepDebug() { return stepDebug; }
-    public static float getMaxBpm() { return maxBpm; }
-    public static float getMinBpm() { return minBpm; }
-    public static float getBpmSensitivity() { return bpmSensitivity; }
-    public static float getStartSync() { return startSync; }
-    public static double getTapSync() { return tapSync; }
-    public static boolean isUseTapper() { return useTapper; }
-    public static boolean isHardMode() { return hardMode; }
-    public static boolean isUpdateSm() { return updateSm; }
-    public static boolean isDownloadImages() { return downloadImages; }
-    public static float getClearance() { return clearance; }
     
     private static final String SECONDS_SUFFIX = " seconds";
     
@@ -63,8 +50,21 @@ public class AutoStepper {
     private static final String CLEARANCE_ARG = "clearance";
     private static final String INPUT_ARG = "input";
     private static final String OUTPUT_ARG = "output";
+    private static final String THREADS_ARG = "threads";
+    private static final String SEED_ARG = "seed";
+    private static final String CACHE_ARG = "cache";
+    private static final String WATCH_ARG = "watch";
+    private static final String REPORT_ARG = "report";
+    private static final String LINK_ARG = "link";
+    // under the output directory, shared by every song written there
+    private static final String ANALYSIS_CACHE_DIR = ".analysis-cache";
     
-    private static Minim minim;
+    // per-instance so that every worker thread owns its decoder state
+    private final AutoStepperConfig config;
+    private final Minim minim;
+    // shared by every worker of the run
+    private final RunReport report;
+    private final ArtworkCache.Search imageSearch;
     
     
     public static final int KICKS = 0;
@@ -72,17 +72,39 @@ public class AutoStepper {
     public static final int SNARE = 2;
     public static final int HAT = 3;
     
-    // for minim
-    public String sketchPath( String fileName ) {
-        return fileName; // Minim compatibility
+    public AutoStepper(AutoStepperConfig config) {
+        this(config, new RunReport(null));
+    }
+
+    AutoStepper(AutoStepperConfig config, RunReport report) {
+        this(config, report, SMGenerator.IMAGE_SEARCH);
+    }
+
+    /** With imageSearch in place of Google Images for the artwork. */
+    AutoStepper(AutoStepperConfig config, RunReport report, ArtworkCache.Search imageSearch) {
+        this.config = config;
+        this.report = report;
+        this.imageSearch = imageSearch;
+        // a handler of its own rather than this, so Minim never sees a half-built AutoStepper
+        this.minim = new Minim(new MinimFiles());
+        if (stepDebug) minim.debugOn();
+        else minim.debugOff();
     }
     
-    // for minim
-    public InputStream createInput( String fileName ) {
-        try {
-            return new FileInputStream(new File(fileName));
-        } catch(Exception e) {
-            return null;
+    /** Minim looks these two methods up by reflection, so the class and methods are public. */
+    public static final class MinimFiles {
+        // for minim
+        public String sketchPath( String fileName ) {
+            return fileName; // Minim compatibility
+        }
+        
+        // for minim
+        public InputStream createInput( String fileName ) {
+            try {
+                return new FileInputStream(new File(fileName));
+            } catch(Exception e) {
+                return null;
+            }
         }
     }
     
@@ -111,70 +133,151 @@ public class AutoStepper {
         logger.info("Starting AutoStepper by cociweb (See www.github.com/cociweb/AutoStepper for more goodies!)");
         if (shouldShowHelp(args)) {
             logger.info("Argument usage (all fields are optional):\n"
-                    + "input=<file or dir> output=<songs dir> duration=<seconds to process, default: 90, -1 for full song> tap=<true/false> tapsync=<tap time offset, default: -0.11> hard=<true/false> updatesm=<true/false> downloadimages=<true/false, default: true> clearance=<seconds to skip from start/end in full song mode, default: 30>");
+                    + "input=<file or dir> output=<songs dir> duration=<seconds to process, default: 90, -1 for full song> tap=<true/false> tapsync=<tap time offset, default: -0.11> hard=<true/false> updatesm=<true/false> downloadimages=<true/false, default: true> clearance=<seconds to skip from start/end in full song mode, default: 30> threads=<songs to process in parallel, default: 1> seed=<chart seed, default: derived from each song> cache=<true/false, reuse earlier analysis of the same audio, default: true> watch=<true/false, keep running and process songs as they are added to the input dir> report=<file to write per-song timings to, .json or .csv> link=<copy/hard/sym, how the music is put next to the .sm, default: copy>");
             return;
         }
 
-        String outputDir = parseAndApplyArgs(args);
+        stepDebug = getArg(args, DEBUG_ARG, DEFAULT_FALSE).equals("true");
+        AutoStepperConfig config = parseArgs(args);
+        String outputDir = getArg(args, OUTPUT_ARG, ".");
+        if (!outputDir.endsWith("/")) outputDir += "/";
         String input = getArg(args, INPUT_ARG, ".");
         float duration = Float.parseFloat(getArg(args, DURATION_ARG, "-1"));
 
-        AutoStepper autoStepper = new AutoStepper();
-        minim = new Minim(autoStepper);
-        if (stepDebug) minim.debugOn();
-        else minim.debugOff(); // Removed to disable debug messages
+        String reportFile = getArg(args, REPORT_ARG, null);
+        RunReport report = new RunReport(reportFile == null ? null : new File(reportFile));
 
-        processInput(autoStepper, new File(input), duration, outputDir);
+        if (getArg(args, WATCH_ARG, DEFAULT_FALSE).equals("true")) {
+            watchInput(config, report, new File(input), duration, outputDir);
+            return;
+        }
+        processInput(config, report, new File(input), duration, outputDir);
+        report.save();
     }
 
     private static boolean shouldShowHelp(String[] args) {
         return hasArg(args, "help") || hasArg(args, "h") || hasArg(args, "?") || hasArg(args, "-help") || hasArg(args, "-?") || hasArg(args, "-h");
     }
 
-    private static String parseAndApplyArgs(String[] args) {
-        maxBpm = Float.parseFloat(getArg(args, MAX_BPM_ARG, "170f"));
+    private static AutoStepperConfig parseArgs(String[] args) {
+        boolean useTapper = getArg(args, TAP_ARG, DEFAULT_FALSE).equals("true");
+        int threads = Math.max(1, Integer.parseInt(getArg(args, THREADS_ARG, "1")));
+        if (useTapper && threads > 1) {
+            // tapping reads from the console, so songs have to come one at a time
+            logger.warning("tap=true requires serial processing, ignoring threads=" + threads);
+            threads = 1;
+        }
+        return new AutoStepperConfig(
+                Float.parseFloat(getArg(args, MAX_BPM_ARG, "170f")),
+                70f,
+                Float.parseFloat(getArg(args, BPM_SENSITIVITY_ARG, "0.05")),
+                Float.parseFloat(getArg(args, START_SYNC_ARG, "0.0")),
+                Double.parseDouble(getArg(args, TAP_SYNC_ARG, "-0.11")),
+                useTapper,
+                getArg(args, HARD_ARG, DEFAULT_FALSE).equals("true"),
+                getArg(args, UPDATE_SM_ARG, DEFAULT_FALSE).equals("true"),
+                getArg(args, DOWNLOAD_IMAGES_ARG, "true").equals("true"),
+                Float.parseFloat(getArg(args, CLEARANCE_ARG, "0.0")),
+                threads,
+                parseSeed(getArg(args, SEED_ARG, null)),
+                getArg(args, CACHE_ARG, "true").equals("true"),
+                parseMusicLink(getArg(args, LINK_ARG, "copy")));
+    }
 
-        String outputDir = getArg(args, OUTPUT_ARG, ".");
-        if (!outputDir.endsWith("/")) outputDir += "/";
+    private static Long parseSeed(String seed) {
+        return seed == null ? null : Long.valueOf(seed);
+    }
 
-        startSync = Float.parseFloat(getArg(args, START_SYNC_ARG, "0.0"));
-        bpmSensitivity = Float.parseFloat(getArg(args, BPM_SENSITIVITY_ARG, "0.05"));
-        useTapper = getArg(args, TAP_ARG, DEFAULT_FALSE).equals("true");
-        tapSync = Double.parseDouble(getArg(args, TAP_SYNC_ARG, "-0.11"));
-        hardMode = getArg(args, HARD_ARG, DEFAULT_FALSE).equals("true");
-        updateSm = getArg(args, UPDATE_SM_ARG, DEFAULT_FALSE).equals("true");
-        downloadImages = getArg(args, DOWNLOAD_IMAGES_ARG, "true").equals("true");
-        stepDebug = getArg(args, DEBUG_ARG, DEFAULT_FALSE).equals("true");
-        clearance = Float.parseFloat(getArg(args, CLEARANCE_ARG, "0.0"));
-        return outputDir;
+    private static AutoStepperConfig.MusicLink parseMusicLink(String link) {
+        switch (link) {
+            case "hard": return AutoStepperConfig.MusicLink.HARD;
+            case "sym": return AutoStepperConfig.MusicLink.SYM;
+            case "copy": return AutoStepperConfig.MusicLink.COPY;
+            default:
+                logger.warning("Unknown link=" + link + ", copying the music");
+                return AutoStepperConfig.MusicLink.COPY;
+        }
     }
 
-    private static void processInput(AutoStepper autoStepper, File inputFile, float duration, String outputDir) {
+    private static void processInput(AutoStepperConfig config, RunReport report, File inputFile, float duration, String outputDir) {
         if (inputFile.isFile()) {
-            autoStepper.analyzeUsingAudioRecordingStream(inputFile, duration, outputDir);
+            new AutoStepper(config, report).analyzeUsingAudioRecordingStream(inputFile, duration, outputDir);
             return;
         }
         if (inputFile.isDirectory()) {
-            processDirectory(autoStepper, inputFile, duration, outputDir);
+            processDirectory(config, report, inputFile, duration, outputDir);
             return;
         }
         if (isStepDebug()) logger.fine("Couldn't find any input files.");
     }
 
-    private static void processDirectory(AutoStepper autoStepper, File inputDir, float duration, String outputDir) {
+    private static void watchInput(AutoStepperConfig config, RunReport report, File inputDir, float duration, String outputDir) {
+        if (!inputDir.isDirectory()) {
+            logger.warning("watch=true needs an input directory: " + inputDir.getAbsolutePath());
+            return;
+        }
+        if (config.useTapper) {
+            logger.warning("tap=true can't be used with watch=true, ignoring watch");
+            processInput(config, report, inputDir, duration, outputDir);
+            report.save();
+            return;
+        }
+        try {
+            new FolderWatcher(config, report, inputDir, duration, outputDir).run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.severe(String.format("Could not watch %s: %s", inputDir.getAbsolutePath(), e.getMessage()));
+        }
+    }
+
+    private static void processDirectory(AutoStepperConfig config, RunReport report, File inputDir, float duration, String outputDir) {
         logger.info("Processing directory: " + inputDir.getAbsolutePath());
         File[] allfiles = inputDir.listFiles();
         if (allfiles == null) return;
+        ArrayList<File> songs = new ArrayList<>();
         for (File f : allfiles) {
             if (isSupportedAudioFile(f)) {
-                autoStepper.analyzeUsingAudioRecordingStream(f, duration, outputDir);
+                songs.add(f);
             } else {
                 if (isStepDebug()) logger.fine("Skipping unsupported file: " + f.getName());
             }
         }
+        if (config.threads <= 1 || songs.size() <= 1) {
+            AutoStepper autoStepper = new AutoStepper(config, report);
+            for (File f : songs) {
+                autoStepper.analyzeUsingAudioRecordingStream(f, duration, outputDir);
+            }
+            return;
+        }
+        processInParallel(config, report, songs, duration, outputDir);
+    }
+
+    private static void processInParallel(AutoStepperConfig config, RunReport report, ArrayList<File> songs, float duration, String outputDir) {
+        int threads = Math.min(config.threads, songs.size());
+        if (logger.isLoggable(Level.INFO)) logger.info(String.format("Processing %d songs on %d threads", songs.size(), threads));
+        // every worker gets its own AutoStepper, and with it its own Minim
+        ThreadLocal<AutoStepper> workers = ThreadLocal.withInitial(() -> new AutoStepper(config, report));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<?>> jobs = new ArrayList<>();
+        for (File f : songs) {
+            jobs.add(pool.submit(() -> workers.get().analyzeUsingAudioRecordingStream(f, duration, outputDir)));
+        }
+        pool.shutdown();
+        for (int i = 0; i < jobs.size(); i++) {
+            try {
+                jobs.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pool.shutdownNow();
+                return;
+            } catch (ExecutionException e) {
+                if (logger.isLoggable(Level.WARNING)) logger.warning(String.format("Failed to process %s: %s", songs.get(i).getName(), e.getCause()));
+            }
+        }
     }
 
-    private static boolean isSupportedAudioFile(File f) {
+    static boolean isSupportedAudioFile(File f) {
         if (!f.isFile()) return false;
         String extCheck = f.getName().toLowerCase();
         return extCheck.endsWith(".mp3") || extCheck.endsWith(".wav");
@@ -206,56 +309,13 @@ public class AutoStepper {
     }
     
     static float getMostCommon(TFloatArrayList arr, float threshold, boolean closestToInteger) {
-        ArrayList<TFloatArrayList> values = groupByThreshold(arr, threshold);
-        TFloatArrayList longestList = findLongestGroup(values);
-        if (longestList == null) return -1f;
-        if (longestList.size() == 1 && values.size() > 1) {
+        ThresholdGroups groups = ThresholdGroups.of(arr, threshold);
+        int longest = groups.longest();
+        if (longest < 0) return -1f;
+        if (groups.size(longest) == 1 && groups.count() > 1) {
             return chooseSingletonValue(arr, closestToInteger);
         }
-        return average(longestList);
-    }
-
-    private static ArrayList<TFloatArrayList> groupByThreshold(TFloatArrayList arr, float threshold) {
-        ArrayList<TFloatArrayList> values = new ArrayList<>();
-        for (int i = 0; i < arr.size(); i++) {
-            float val = arr.get(i);
-            TFloatArrayList group = findGroup(values, val, threshold);
-            if (group == null) {
-                TFloatArrayList newList = new TFloatArrayList();
-                newList.add(val);
-                values.add(newList);
-            } else {
-                group.add(val);
-            }
-        }
-        return values;
-    }
-
-    private static TFloatArrayList findGroup(ArrayList<TFloatArrayList> values, float val, float threshold) {
-        for (int j = 0; j < values.size(); j++) {
-            TFloatArrayList tal = values.get(j);
-            for (int k = 0; k < tal.size(); k++) {
-                float listValue = tal.get(k);
-                if (Math.abs(listValue - val) < threshold) {
-                    return tal;
-                }
-            }
-        }
-        return null;
-    }
-
-    private static TFloatArrayList findLongestGroup(ArrayList<TFloatArrayList> values) {
-        int longest = 0;
-        TFloatArrayList longestList = null;
-        for (int i = 0; i < values.size(); i++) {
-            TFloatArrayList check = values.get(i);
-            if (check.size() > longest ||
-                check.size() == longest && getDifferenceAverage(check) < getDifferenceAverage(longestList)) {
-                longest = check.size();
-                longestList = check;
-            }
-        }
-        return longestList;
+        return groups.average(longest);
     }
 
     private static float chooseSingletonValue(TFloatArrayList arr, boolean closestToInteger) {
@@ -286,14 +346,6 @@ public class AutoStepper {
         return smallest;
     }
 
-    private static float average(TFloatArrayList values) {
-        float avg = 0f;
-        for (int i = 0; i < values.size(); i++) {
-            avg += values.get(i);
-        }
-        return avg / values.size();
-    }
-    
     public static float getBestOffset(float timePerBeat, TFloatArrayList times, float groupBy) {
         TFloatArrayList offsets = new TFloatArrayList();
         for(int i=0;i<times.size();i++) {
@@ -302,19 +354,16 @@ public class AutoStepper {
         return getMostCommon(offsets, groupBy, false);
     }
       
-    public static float computeAutocorrBPM(TFloatArrayList onsetStrengths, float timePerSample) {
+    public static float computeAutocorrBPM(TFloatArrayList onsetStrengths, float timePerSample, float minBpm, float maxBpm) {
         if (onsetStrengths.size() < 10) return 0f;
-        int maxLag = onsetStrengths.size() / 2;
-        float[] autocorr = new float[maxLag];
+        int n = onsetStrengths.size();
+        int maxLag = n / 2;
+        float[] autocorr = autocorrelate(onsetStrengths);
         for(int lag=1; lag<maxLag; lag++) {
-            float sum = 0f;
-            for(int i=0; i<onsetStrengths.size()-lag; i++) {
-                sum += onsetStrengths.get(i) * onsetStrengths.get(i+lag);
-            }
-            autocorr[lag] = sum / (onsetStrengths.size() - lag);
+            autocorr[lag] /= (n - lag);
         }
-        float minTime = 60f / getMaxBpm();
-        float maxTime = 60f / getMinBpm();
+        float minTime = 60f / maxBpm;
+        float maxTime = 60f / minBpm;
         int minLag = Math.max(1, (int)(minTime / timePerSample));
         int maxLagRange = Math.min(maxLag - 1, (int)(maxTime / timePerSample));
         if (minLag >= maxLagRange) return 0f;
@@ -332,7 +381,28 @@ public class AutoStepper {
         return Math.round(bpm);
     }
       
-    public static void addCommonBPMs(TFloatArrayList common, TFloatArrayList times, float doubleSpeed, float timePerSample) {
+    // linear autocorrelation via Wiener-Khinchin: the inverse transform of the power spectrum.
+    // zero padding to at least twice the length keeps the circular transform from wrapping.
+    private static float[] autocorrelate(TFloatArrayList values) {
+        int n = values.size();
+        int size = Integer.highestOneBit(2 * n - 1) << 1;
+        float[] signal = new float[size];
+        for (int i = 0; i < n; i++) {
+            signal[i] = values.get(i);
+        }
+        FFT fft = new FFT(size, 1f);
+        fft.forward(signal);
+        float[] re = fft.getSpectrumReal();
+        float[] im = fft.getSpectrumImaginary();
+        float[] power = new float[size];
+        for (int i = 0; i < size; i++) {
+            power[i] = re[i] * re[i] + im[i] * im[i];
+        }
+        fft.inverse(power, new float[size], signal);
+        return signal;
+    }
+      
+    public static void addCommonBPMs(TFloatArrayList common, TFloatArrayList times, float doubleSpeed, float timePerSample, float minBpm, float maxBpm) {
         float period = getMostCommon(calculateDifferences(times, doubleSpeed), timePerSample, true);
         if ( period <= 0f || Float.isNaN(period) || Float.isInfinite(period) ) {
             return;
@@ -347,19 +417,20 @@ public class AutoStepper {
         } else common.add(commonBPM);
     }
     
-    private static float tappedOffset;
-    public static int getTappedBpm(String filename) {
+    // returns the tapped bpm, timePerBeat & offset; bpm is 0 if tapping isn't possible
+    private BPMResult getTappedTiming(String filename) {
+        BPMResult timing = new BPMResult();
         // Disable tapping for MP3 files to avoid loading large decoded audio into memory
         if (filename.toLowerCase().endsWith(".mp3")) {
             if (isStepDebug()) logger.fine("Tapping disabled for MP3 files. Using auto BPM detection instead.");
-            return 0;
+            return timing;
         }
         // now we load the whole song so we don't have to worry about streaming a variable mp3 with timing inaccuracies
         if (isStepDebug()) logger.fine("Loading whole song for tapping...");
         AudioSample fullSong = minim.loadSample(filename);
         if (fullSong == null) {
             if (isStepDebug()) logger.fine("Failed to load song for tapping. Using auto BPM detection instead.");
-            return 0; // Will fall back to auto detection
+            return timing; // Will fall back to auto detection
         }
         if (logger.isLoggable(Level.INFO)) logger.info(String.format("%n********************************************************************%n%nPress [ENTER] to start song, then press [ENTER] to tap to the beat.%nIt will complete after 30 entries.%nDon't worry about hitting the first beat, just start anytime.%n%n********************************************************************"));
         TFloatArrayList positions = new TFloatArrayList();
@@ -378,7 +449,7 @@ public class AutoStepper {
                 long now = System.nanoTime();
                 // calculate the time difference
                 // we note a consistent 0.11 second delay in input to song here
-                float time = (float)((now - nano) / 1_000_000_000f + tapSync);
+                float time = (float)((now - nano) / 1_000_000_000f + config.tapSync);
                 positions.add(time);                
                 if (isStepDebug()) logger.fine(String.format("#%d/30: %fs", positions.size(), time));
             }
@@ -388,49 +459,47 @@ public class AutoStepper {
         in.close();
         float avg = ((positions.getQuick(positions.size()-1) - positions.getQuick(0)) / (positions.size() - 1));
         int bpm = (int)Math.floor(60f / avg);
-        float timePerBeat = 60f / bpm;
-        tappedOffset = -getBestOffset(timePerBeat, positions, 0.1f);
-        return bpm;
+        timing.bpm = bpm;
+        timing.timePerBeat = 60f / bpm;
+        timing.startTime = -getBestOffset(timing.timePerBeat, positions, 0.1f);
+        return timing;
     }
     
-    private static AudioAnalysisContext performBeatDetection(AudioRecordingStream stream, int fftSize, float songTime, boolean fullSongMode) {
+    private AudioAnalysisContext performBeatDetection(AudioDecoder decoder, int fftSize, float songTime, boolean fullSongMode, SongTiming timing) {
         AudioAnalysisContext context = new AudioAnalysisContext();
-        context.stream = stream;
+        context.decoder = decoder;
+        context.timing = timing;
         context.songTime = songTime;
         context.fullSongMode = fullSongMode;
         
-        // create the fft/beatdetect objects we'll use for analysis
-        BeatDetect manybd = createBeatDetect(stream, fftSize, BeatDetect.FREQ_ENERGY, bpmSensitivity);
-        BeatDetect fewbd = createBeatDetect(stream, fftSize, BeatDetect.FREQ_ENERGY, 60f / maxBpm);
-        BeatDetect manybde = createBeatDetect(stream, fftSize, BeatDetect.SOUND_ENERGY, bpmSensitivity);
-        BeatDetect fewbde = createBeatDetect(stream, fftSize, BeatDetect.SOUND_ENERGY, 60f / maxBpm);
-
-        context.manybd = manybd;
-        context.fewbd = fewbd;
-        context.manybde = manybde;
-        context.fewbde = fewbde;
-        
-        FFT fft = new FFT( fftSize, stream.getFormat().getSampleRate() );
-        context.fft = fft;
-
-        // create the buffer we use for reading from the stream
-        MultiChannelBuffer buffer = new MultiChannelBuffer(fftSize, stream.getFormat().getChannels());
+        // one detector per algorithm; both sensitivities share its spectrum and energy history
+        float sampleRate = decoder.getFormat().getSampleRate();
+        context.freqbd = new BeatDetect(BeatDetect.FREQ_ENERGY, fftSize, sampleRate);
+        context.energybd = new BeatDetect(BeatDetect.SOUND_ENERGY, fftSize, sampleRate);
+        context.manybd = context.freqbd.addSensitivity(config.bpmSensitivity);
+        context.fewbd = context.freqbd.addSensitivity(60f / config.maxBpm);
+        context.manybde = context.energybd.addSensitivity(config.bpmSensitivity);
+        context.fewbde = context.energybd.addSensitivity(60f / config.maxBpm);
+
+        // create the buffer we use for reading from the decoder
+        // only the left channel is analyzed, so that's the only one we decode
+        MultiChannelBuffer buffer = new MultiChannelBuffer(fftSize, 1);
         context.buffer = buffer;
 
-        // figure out how many samples are in the stream so we can allocate the correct number of spectra
+        // figure out how many samples are in the file so we can allocate the correct number of spectra
         int totalSamples = 0;
         if (fullSongMode) {
-            totalSamples = (int)( songTime * stream.getFormat().getSampleRate() );
+            totalSamples = (int)( songTime * decoder.getFormat().getSampleRate() );
         }
         context.totalSamples = totalSamples;
 
-        float timePerSample = fftSize / stream.getFormat().getSampleRate();
+        float timePerSample = fftSize / decoder.getFormat().getSampleRate();
         context.timePerSample = timePerSample;
 
         int totalChunks = (totalSamples / fftSize) + 1;
         if (!fullSongMode) {
             // For limited duration, cap the chunks
-            totalChunks = Math.min(totalChunks, (int)(songTime * stream.getFormat().getSampleRate() / fftSize) + 1);
+            totalChunks = Math.min(totalChunks, (int)(songTime * decoder.getFormat().getSampleRate() / fftSize) + 1);
         }
         context.totalChunks = totalChunks;
 
@@ -443,17 +512,18 @@ public class AutoStepper {
         context.manyTimes = manyTimes;
         context.fewTimes = fewTimes;
 
-        TFloatArrayList midFftAmount = new TFloatArrayList();
-        TFloatArrayList midFftMaxes = new TFloatArrayList();
+        // one value per chunk, so size them up front instead of growing them while decoding
+        TFloatArrayList midFftAmount = new TFloatArrayList(totalChunks);
+        TFloatArrayList midFftMaxes = new TFloatArrayList(totalChunks);
         context.midFFTAmount = midFftAmount;
         context.midFFTMaxes = midFftMaxes;
 
-        TFloatArrayList onsetStrengths = new TFloatArrayList();
+        TFloatArrayList onsetStrengths = new TFloatArrayList(totalChunks);
         context.onsetStrengths = onsetStrengths;
 
         // Perform the beat detection loop
+        context.previousSpectrum = new float[context.freqbd.specSize()];
         context.actualSongTime = runBeatDetectionLoop(context, fftSize);
-        context.previousEnergy = 0f;  // Initialize previousEnergy
 
     return context;
   }
@@ -461,9 +531,18 @@ public class AutoStepper {
   private static float runBeatDetectionLoop(AudioAnalysisContext context, int fftSize) {
       int consecutiveNoData = 0;
       float actualSongTime = 0f;
+      // reads and analysis alternate, so split the loop's time between the two as it runs
+      long loopWall = System.nanoTime();
+      long loopCpu = SongTiming.threadCpuNanos();
+      long decodeWall = 0;
+      long decodeCpu = 0;
 
       for (int chunkIdx = 0; chunkIdx < context.totalChunks; ++chunkIdx) {
-          int framesRead = context.stream.read(context.buffer);
+          long readWall = System.nanoTime();
+          long readCpu = SongTiming.threadCpuNanos();
+          int framesRead = context.decoder.read(context.buffer);
+          decodeWall += System.nanoTime() - readWall;
+          decodeCpu += SongTiming.threadCpuNanos() - readCpu;
           if (framesRead <= 0) {
               consecutiveNoData++;
               if (consecutiveNoData > 10) {
@@ -481,15 +560,11 @@ public class AutoStepper {
           analyzeChunk(context, data, fftSize, time);
       }
 
+      context.timing.add("decode", decodeWall, decodeCpu);
+      context.timing.add("beatDetection", System.nanoTime() - loopWall - decodeWall, SongTiming.threadCpuNanos() - loopCpu - decodeCpu);
       return actualSongTime;
   }
 
-  private static BeatDetect createBeatDetect(AudioRecordingStream stream, int fftSize, int mode, float sensitivity) {
-      BeatDetect bd = new BeatDetect(mode, fftSize, stream.getFormat().getSampleRate());
-      bd.setSensitivity(sensitivity);
-      return bd;
-  }
-
   private static void initTimeArrays(TFloatArrayList[] manyTimes, TFloatArrayList[] fewTimes) {
       for (int i = 0; i < fewTimes.length; i++) {
           if (fewTimes[i] == null) fewTimes[i] = new TFloatArrayList();
@@ -501,25 +576,30 @@ public class AutoStepper {
 
   private static void analyzeChunk(AudioAnalysisContext context, float[] data, int fftSize, float time) {
       // now analyze the left channel
-      context.manybd.detect(data, time);
-      context.fewbd.detect(data, time);
-      context.manybde.detect(data, time);
-      context.fewbde.detect(data, time);
-
-      float[] fftData = new float[fftSize];
-      System.arraycopy(data, 0, fftData, 0, fftSize);
-      context.fft.forward(fftData);
+      // a single spectrum / energy pass per chunk feeds every sensitivity
+      context.freqbd.detect(data, time);
+      context.energybd.detect(data, time);
 
       float midFFTAmountVal = 0f;
       float midFFTMax = 0f;
       for (int i = 0; i < fftSize; i++) {
-          float fftVal = Math.abs(fftData[i]);
+          float fftVal = Math.abs(data[i]);
           midFFTAmountVal += fftVal;
           if (fftVal > midFFTMax) midFFTMax = fftVal;
       }
       context.midFFTAmount.add(midFFTAmountVal);
       context.midFFTMaxes.add(midFFTMax);
 
+      // spectral flux: how much the spectrum grew since the last chunk
+      float flux = 0f;
+      float[] previous = context.previousSpectrum;
+      for (int i = 0; i < previous.length; i++) {
+          float band = context.freqbd.getBand(i);
+          if (band > previous[i]) flux += band - previous[i];
+          previous[i] = band;
+      }
+      context.onsetStrengths.add(flux);
+
       // store the time of each beat
       if (context.manybd.isKick()) context.manyTimes[KICKS].add(time);
       if (context.manybd.isHat()) context.manyTimes[HAT].add(time);
@@ -537,15 +617,15 @@ public class AutoStepper {
     float startTime;
   }
     
-    private static BPMResult calculateBPM(AudioAnalysisContext context, File filename, String outputDir, float autocorrBPM) {
+    private BPMResult calculateBPM(AudioAnalysisContext context, File filename, String outputDir, float autocorrBPM) {
         // calculate differences between percussive elements,
         // then find the most common differences among all
         // use this to calculate BPM
         TFloatArrayList common = new TFloatArrayList();
-        float doubleSpeed = 60f / (maxBpm * 2f);
+        float doubleSpeed = 60f / (config.maxBpm * 2f);
         for(int i=0;i<context.fewTimes.length;i++) {
-            addCommonBPMs(common, context.fewTimes[i], doubleSpeed, context.timePerSample * 1.5f);
-            addCommonBPMs(common, context.manyTimes[i], doubleSpeed, context.timePerSample * 1.5f);
+            addCommonBPMs(common, context.fewTimes[i], doubleSpeed, context.timePerSample * 1.5f, config.minBpm, config.maxBpm);
+            addCommonBPMs(common, context.manyTimes[i], doubleSpeed, context.timePerSample * 1.5f, config.minBpm, config.maxBpm);
         }
         BPMResult result = new BPMResult();
         BPMResult timing = resolveInitialTiming(filename, outputDir);
@@ -566,11 +646,11 @@ public class AutoStepper {
         return result;
     }
 
-    private static BPMResult selectTimingFromCommon(TFloatArrayList common) {
+    private BPMResult selectTimingFromCommon(TFloatArrayList common) {
         BPMResult timing = new BPMResult();
         timing.bpm = 0f;
         timing.timePerBeat = 0f;
-        timing.startTime = (clearance > 0f) ? clearance : 0f;
+        timing.startTime = (config.clearance > 0f) ? config.clearance : 0f;
 
         if (common == null || common.isEmpty()) return timing;
 
@@ -582,27 +662,28 @@ public class AutoStepper {
         return timing;
     }
 
-    private static BPMResult resolveInitialTiming(File filename, String outputDir) {
+    private BPMResult resolveInitialTiming(File filename, String outputDir) {
         BPMResult timing = new BPMResult();
         timing.bpm = 0f;
         timing.timePerBeat = 0f;
-        timing.startTime = (clearance > 0f) ? clearance : 0f;
+        timing.startTime = (config.clearance > 0f) ? config.clearance : 0f;
 
-        if (useTapper) {
-            timing.bpm = getTappedBpm(filename.getAbsolutePath());
-            timing.timePerBeat = 60f / timing.bpm;
-            timing.startTime = tappedOffset;
+        if (config.useTapper) {
+            BPMResult tapped = getTappedTiming(filename.getAbsolutePath());
+            timing.bpm = tapped.bpm;
+            timing.timePerBeat = 60f / tapped.bpm;
+            timing.startTime = tapped.startTime;
             return timing;
         }
 
-        if (updateSm) {
+        if (config.updateSm) {
             BPMResult smTiming = readTimingFromSm(filename, outputDir);
             if (smTiming != null) return smTiming;
         }
         return timing;
     }
 
-    private static BPMResult readTimingFromSm(File filename, String outputDir) {
+    private BPMResult readTimingFromSm(File filename, String outputDir) {
         File smfile = SMGenerator.getSMFile(filename, outputDir);
         if (!smfile.exists()) {
             if (logger.isLoggable(Level.WARNING)) logger.warning(String.format("Couldn't find SM to update: %s", smfile.getAbsolutePath()));
@@ -611,7 +692,7 @@ public class AutoStepper {
 
         BPMResult timing = new BPMResult();
         timing.bpm = 0f;
-        timing.startTime = (clearance > 0f) ? clearance : 0f;
+        timing.startTime = (config.clearance > 0f) ? config.clearance : 0f;
 
         try (BufferedReader br = new BufferedReader(new FileReader(smfile))) {
             applySmTimingFromReader(br, timing);
@@ -674,57 +755,251 @@ public class AutoStepper {
     }
 
 void analyzeUsingAudioRecordingStream(File filename, float seconds, String outputDir) {
+    // one song at a time has the heap to itself, so its peak can be measured on its own
+    SongTiming timing = new SongTiming(filename.getName(), config.threads <= 1);
+    boolean succeeded = false;
+    try {
+        succeeded = analyzeUsingAudioRecordingStream(filename, seconds, outputDir, timing);
+    } finally {
+        timing.finish(succeeded);
+        report.add(timing);
+    }
+}
+
+// records into timing but leaves finishing it to the caller
+boolean analyzeUsingAudioRecordingStream(File filename, float seconds, String outputDir, SongTiming timing) {
     int fftSize = 512;
     
     boolean fullSongMode = (seconds == -1);
     logProcessingHeader(filename, seconds, fullSongMode);
-    AudioRecordingStream stream = minim.loadFileStream(filename.getAbsolutePath(), fftSize, false);
-
-    // tell it to "play" so we can read from it.
-    stream.play();
-
-    // figure out how many samples are in the stream so we can allocate the correct number of spectra
-    // Try to get length from AudioFileFormat (standard Java Sound)
-    float songTime = determineSongTimeSeconds(filename, fullSongMode);
-
-    AudioAnalysisContext context = performBeatDetection(stream, fftSize, songTime, fullSongMode);
-    
-    // Update songTime to actual duration processed
-    if (fullSongMode && context.actualSongTime > 0) {
-        songTime = context.actualSongTime;
-        if (isStepDebug() && logger.isLoggable(Level.FINE)) logger.fine(String.format("Actual song duration processed: %s%s", songTime, SECONDS_SUFFIX));
+    // the artwork is looked up while the song is analyzed
+    SMGenerator.SongHeader header = SMGenerator.startHeader(filename, outputDir, config, imageSearch, timing);
+    // only the derived chart seed and the analysis cache need the hash, and it reads the whole file
+    byte[] digest = null;
+    if (config.seed == null || config.analysisCache) {
+        SongTiming.Stage hashStage = timing.stage("hash");
+        try {
+            digest = songDigest(filename);
+        } finally {
+            hashStage.end();
+        }
+        if (digest != null) timing.addBytesRead(filename.length());
+    }
+    AudioAnalysisContext context = analyzeSong(filename, digest, fftSize, seconds, outputDir, timing);
+    if (context == null) {
+        header.discard();
+        return false;
+    }
+    float songTime = context.songTime;
+    timing.setAudioSeconds(fullSongMode ? songTime : Math.min(seconds, songTime));
+    BPMResult bpmResult;
+    SongTiming.Stage bpmStage = timing.stage("bpm");
+    try {
+        float autocorrBPM = computeAutocorrBPM(context.onsetStrengths, context.timePerSample, config.minBpm, config.maxBpm);
+        if (isStepDebug() && logger.isLoggable(Level.FINE)) logger.fine(String.format("Autocorr BPM: %s", autocorrBPM));
+        
+        // Calculate normalization values
+        float largestAvg = computeLargestAvg(context);
+        if (isStepDebug() && logger.isLoggable(Level.FINE)) logger.fine(String.format("Loudest midrange average to normalize to 1: %s", largestAvg));
+        // start making the SM
+        bpmResult = calculateBPM(context, filename, outputDir, autocorrBPM);
+    } finally {
+        bpmStage.end();
     }
-    float autocorrBPM = computeAutocorrBPM(context.onsetStrengths, context.timePerSample);
-    if (isStepDebug() && logger.isLoggable(Level.FINE)) logger.fine(String.format("Autocorr BPM: %s", autocorrBPM));
-    
-    // Calculate normalization values
-    float largestAvg = computeLargestAvg(context);
-    if (isStepDebug() && logger.isLoggable(Level.FINE)) logger.fine(String.format("Loudest midrange average to normalize to 1: %s", largestAvg));
-    // start making the SM
-    BPMResult bpmResult = calculateBPM(context, filename, outputDir, autocorrBPM);
     float bpm = bpmResult.bpm;
     float timePerBeat = bpmResult.timePerBeat;
     float startTime = bpmResult.startTime;
     
     // Use Effective songTime for full song mode, seconds for limited mode
-    float effectiveTime = fullSongMode ? (songTime - 2*clearance) : seconds;
+    float effectiveTime = fullSongMode ? (songTime - 2*config.clearance) : seconds;
     
     // start making the SM
-    StepGenerator stepGenerator = new StepGenerator();
-    BufferedWriter smfile = SMGenerator.generateSmFromPath(bpm, startTime, filename, outputDir);
+    BufferedWriter smfile = SMGenerator.generateSmFromPath(bpm, startTime, header, outputDir, config, timing);
     
-    if( hardMode && isStepDebug() ) logger.fine("Hard mode enabled! Extra steps for you! ;-)");
+    if( config.hardMode && isStepDebug() ) logger.fine("Hard mode enabled! Extra steps for you! ;-)");
     
-    SMGenerator.addNotes(smfile, SMGenerator.getBeginner(), stepGenerator.generateNotes(4, 8, 0, context.manyTimes, context.fewTimes, context.midFFTAmount, context.midFFTMaxes, context.timePerSample, timePerBeat*2, startTime, effectiveTime, false));
-    SMGenerator.addNotes(smfile, SMGenerator.getEasy(), stepGenerator.generateNotes(4, 4, 1, context.manyTimes, context.fewTimes, context.midFFTAmount, context.midFFTMaxes, context.timePerSample, timePerBeat*2, startTime, effectiveTime, false));
-    SMGenerator.addNotes(smfile, SMGenerator.getMedium(), stepGenerator.generateNotes(2, 2, 2, context.manyTimes, context.fewTimes, context.midFFTAmount, context.midFFTMaxes, context.timePerSample, timePerBeat*2, startTime, effectiveTime, false));
-    SMGenerator.addNotes(smfile, SMGenerator.getHard(), stepGenerator.generateNotes(2, 1, 3, context.manyTimes, context.fewTimes, context.midFFTAmount, context.midFFTMaxes, context.timePerSample, timePerBeat*2, startTime, effectiveTime, false));
-    SMGenerator.addNotes(smfile, SMGenerator.getChallenge(), stepGenerator.generateNotes(1, 1, 5, context.manyTimes, context.fewTimes, context.midFFTAmount, context.midFFTMaxes, context.timePerSample, timePerBeat, startTime, effectiveTime, true));
-    SMGenerator.complete(smfile);
+    List<CompletableFuture<StepGenerator>> charts = generateCharts(context, chartSeed(filename, digest), timePerBeat, startTime, effectiveTime, timing);
+    String[] difficulties = {
+        SMGenerator.getBeginner(config.hardMode), SMGenerator.getEasy(config.hardMode), SMGenerator.getMedium(config.hardMode),
+        SMGenerator.getHard(config.hardMode), SMGenerator.getChallenge(config.hardMode)
+    };
+    // the charts go into the file in order, each as soon as it and the ones before it are done
+    for (int i = 0; i < difficulties.length; i++) {
+        StepGenerator chart = charts.get(i).join();
+        SongTiming.Stage writeStage = timing.stage("smWrite");
+        try {
+            SMGenerator.addNotes(smfile, difficulties[i], chart);
+        } finally {
+            writeStage.end();
+        }
+        // nothing holds on to a chart once it's written
+        charts.set(i, null);
+    }
+    SongTiming.Stage writeStage = timing.stage("smWrite");
+    try {
+        SMGenerator.complete(smfile);
+    } finally {
+        writeStage.end();
+    }
     
     logger.info("[--------- SUCCESS ----------]");
+    return true;
 } // added closing brace for the analyzeUsingAudioRecordingStream method
 
+// runs beat detection on the song, or reloads what an earlier run found for the same
+// audio and settings; null if the song can't be decoded
+private AudioAnalysisContext analyzeSong(File filename, byte[] digest, int fftSize, float seconds, String outputDir, SongTiming timing) {
+    boolean fullSongMode = (seconds == -1);
+    AnalysisCache cache = config.analysisCache && digest != null ? new AnalysisCache(new File(outputDir, ANALYSIS_CACHE_DIR)) : null;
+    long fingerprint = AnalysisCache.fingerprint(fftSize, config.bpmSensitivity, config.maxBpm, seconds);
+    if (cache != null) {
+        SongTiming.Stage loadStage = timing.stage("cacheLoad");
+        try {
+            AnalysisCache.Features features = cache.load(digest, fingerprint);
+            if (features != null) {
+                if (isStepDebug() && logger.isLoggable(Level.FINE)) logger.fine(String.format("Reusing the cached analysis of %s", filename.getName()));
+                timing.setCached(true);
+                return contextFromFeatures(features);
+            }
+        } catch (IOException e) {
+            logger.warning(String.format("Could not read the cached analysis of %s: %s", filename.getName(), e.getMessage()));
+        } finally {
+            loadStage.end();
+        }
+    }
+
+    AudioDecoder decoder;
+    SongTiming.Stage openStage = timing.stage("open");
+    try {
+        decoder = minim.loadFileDecoder(filename.getAbsolutePath());
+        if (decoder == null) {
+            if (logger.isLoggable(Level.WARNING)) logger.warning(String.format("Couldn't open %s for analysis", filename.getName()));
+            return null;
+        }
+    } finally {
+        openStage.end();
+    }
+
+    AudioAnalysisContext context;
+    // closed even when decoding throws halfway, or watch=true would keep the file open for good
+    try {
+        float songTime;
+        SongTiming.Stage lengthStage = timing.stage("open");
+        try {
+            // figure out how many samples are in the stream so we can allocate the correct number of spectra
+            // Try to get length from AudioFileFormat (standard Java Sound)
+            songTime = determineSongTimeSeconds(filename, fullSongMode);
+        } finally {
+            lengthStage.end();
+        }
+
+        context = performBeatDetection(decoder, fftSize, songTime, fullSongMode, timing);
+    } finally {
+        decoder.close();
+    }
+    timing.addBytesRead(filename.length());
+    
+    // Update songTime to actual duration processed
+    if (fullSongMode && context.actualSongTime > 0) {
+        context.songTime = context.actualSongTime;
+        if (isStepDebug() && logger.isLoggable(Level.FINE)) logger.fine(String.format("Actual song duration processed: %s%s", context.songTime, SECONDS_SUFFIX));
+    }
+
+    if (cache != null) {
+        SongTiming.Stage storeStage = timing.stage("cacheStore");
+        try {
+            cache.store(digest, fingerprint, new AnalysisCache.Features(context.manyTimes, context.fewTimes,
+                    context.midFFTAmount, context.midFFTMaxes, context.onsetStrengths, context.timePerSample, context.songTime));
+        } catch (IOException e) {
+            logger.warning(String.format("Could not cache the analysis of %s: %s", filename.getName(), e.getMessage()));
+        } finally {
+            storeStage.end();
+        }
+    }
+    return context;
+}
+
+private static AudioAnalysisContext contextFromFeatures(AnalysisCache.Features features) {
+    AudioAnalysisContext context = new AudioAnalysisContext();
+    context.manyTimes = features.manyTimes;
+    context.fewTimes = features.fewTimes;
+    context.midFFTAmount = features.midFFTAmount;
+    context.midFFTMaxes = features.midFFTMaxes;
+    context.onsetStrengths = features.onsetStrengths;
+    context.timePerSample = features.timePerSample;
+    context.songTime = features.songTime;
+    return context;
+}
+
+// SHA-256 of the song, or null if it can't be read
+private static byte[] songDigest(File filename) {
+    try {
+        return SongHash.digest(filename);
+    } catch (IOException e) {
+        logger.warning(String.format("Could not hash %s: %s", filename.getName(), e.getMessage()));
+        return null;
+    }
+}
+
+// the seed every chart of this song is generated from
+private long chartSeed(File filename, byte[] digest) {
+    long seed;
+    if (config.seed != null) {
+        seed = config.seed;
+    } else if (digest != null) {
+        seed = SongHash.toLong(digest);
+    } else {
+        if (isStepDebug() && logger.isLoggable(Level.FINE)) logger.fine(String.format("Seeding %s from its name", filename.getName()));
+        seed = filename.getName().hashCode();
+    }
+    if (isStepDebug() && logger.isLoggable(Level.FINE)) logger.fine(String.format("Chart seed: %d (seed=%d regenerates these charts)", seed, seed));
+    return seed;
+}
+
+// generates beginner through challenge at the same time; each chart gets its own
+// generator and random stream, and only reads the analysis results. Each generator
+// holds its finished chart until it's written out.
+@SuppressWarnings("java:S00107")
+private static List<CompletableFuture<StepGenerator>> generateCharts(AudioAnalysisContext context, long seed, float timePerBeat, float startTime, float effectiveTime, SongTiming timing) {
+    String[] names = { "notes.beginner", "notes.easy", "notes.medium", "notes.hard", "notes.challenge" };
+    StepGenerator.NoteGenerationConfig[] charts = {
+        chartConfig(context, 4, 8, 0, timePerBeat*2, startTime, effectiveTime, false),
+        chartConfig(context, 4, 4, 1, timePerBeat*2, startTime, effectiveTime, false),
+        chartConfig(context, 2, 2, 2, timePerBeat*2, startTime, effectiveTime, false),
+        chartConfig(context, 2, 1, 3, timePerBeat*2, startTime, effectiveTime, false),
+        chartConfig(context, 1, 1, 5, timePerBeat, startTime, effectiveTime, true),
+    };
+    // split the streams up front so each difficulty's stream doesn't depend on scheduling
+    SplittableRandom songRandom = new SplittableRandom(seed);
+    SplittableRandom[] chartRandoms = new SplittableRandom[charts.length];
+    for (int i = 0; i < charts.length; i++) {
+        chartRandoms[i] = songRandom.split();
+    }
+    StepGenerator.SustainIndex sustainIndex = StepGenerator.indexSustain(context.midFFTMaxes, context.midFFTAmount);
+    List<CompletableFuture<StepGenerator>> generated = new ArrayList<>(charts.length);
+    for (int i = 0; i < charts.length; i++) {
+        int chart = i;
+        generated.add(CompletableFuture.supplyAsync(() -> {
+            SongTiming.Stage stage = timing.stage(names[chart]);
+            try {
+                StepGenerator generator = new StepGenerator(chartRandoms[chart], sustainIndex);
+                generator.generate(charts[chart]);
+                return generator;
+            } finally {
+                stage.end();
+            }
+        }));
+    }
+    return generated;
+}
+
+@SuppressWarnings("java:S00107")
+private static StepGenerator.NoteGenerationConfig chartConfig(AudioAnalysisContext context, int stepGranularity, int skipChance, int holdDensity,
+                                                              float timePerBeat, float startTime, float effectiveTime, boolean allowMines) {
+    return new StepGenerator.NoteGenerationConfig(stepGranularity, skipChance, holdDensity, context.manyTimes, context.fewTimes,
+            context.midFFTAmount, context.midFFTMaxes, context.timePerSample, timePerBeat, startTime, effectiveTime, allowMines);
+}
+
 private static void logProcessingHeader(File filename, float seconds, boolean fullSongMode) {
     if (fullSongMode) {
         if (logger.isLoggable(Level.INFO)) logger.info(String.format("%n[--- Processing FULL SONG %s ---]", filename.getName()));
@@ -780,12 +1055,13 @@ private static float computeLargestAvg(AudioAnalysisContext context) {
 }
 
   private static class AudioAnalysisContext {
-    AudioRecordingStream stream;
-    BeatDetect manybd;
-    BeatDetect fewbd;
-    BeatDetect manybde;
-    BeatDetect fewbde;
-    FFT fft;
+    AudioDecoder decoder;
+    BeatDetect freqbd;
+    BeatDetect energybd;
+    BeatDetect.Sensitivity manybd;
+    BeatDetect.Sensitivity fewbd;
+    BeatDetect.Sensitivity manybde;
+    BeatDetect.Sensitivity fewbde;
     MultiChannelBuffer buffer;
     float songTime;
     int totalSamples;
@@ -800,7 +1076,8 @@ private static float computeLargestAvg(AudioAnalysisContext context) {
     float largestAvg;
     float largestMax;
     float actualSongTime;
-    float previousEnergy;
+    float[] previousSpectrum;
+    SongTiming timing;
     float bpm;
     float timePerBeat;
     float startTime;
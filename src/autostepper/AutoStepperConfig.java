@@ -0,0 +1,54 @@
+package autostepper;
+
+/**
+ * Immutable snapshot of the command line options. One instance is created in
+ * main() and shared by every song job, so worker threads never read mutable
+ * statics while analyzing a song.
+ */
+public class AutoStepperConfig {
+
+    /** How the song gets into its output folder next to the .sm file. */
+    public enum MusicLink { COPY, HARD, SYM }
+
+    public final float maxBpm;
+    public final float minBpm;
+    public final float bpmSensitivity;
+    public final float startSync;
+    public final double tapSync;
+    public final boolean useTapper;
+    public final boolean hardMode;
+    public final boolean updateSm;
+    public final boolean downloadImages;
+    public final float clearance;
+    public final int threads;
+    /** Seed for the chart generators; null derives it from each song's contents. */
+    public final Long seed;
+    /** Whether beat detection results are kept on disk and reused on later runs. */
+    public final boolean analysisCache;
+    public final MusicLink musicLink;
+
+    @SuppressWarnings("java:S00107")
+    public AutoStepperConfig(float maxBpm, float minBpm, float bpmSensitivity, float startSync, double tapSync,
+                             boolean useTapper, boolean hardMode, boolean updateSm, boolean downloadImages,
+                             float clearance, int threads, Long seed, boolean analysisCache, MusicLink musicLink) {
+        this.maxBpm = maxBpm;
+        this.minBpm = minBpm;
+        this.bpmSensitivity = bpmSensitivity;
+        this.startSync = startSync;
+        this.tapSync = tapSync;
+        this.useTapper = useTapper;
+        this.hardMode = hardMode;
+        this.updateSm = updateSm;
+        this.downloadImages = downloadImages;
+        this.clearance = clearance;
+        this.threads = threads;
+        this.seed = seed;
+        this.analysisCache = analysisCache;
+        this.musicLink = musicLink;
+    }
+
+    /** Configuration with the same defaults as an empty command line. */
+    public static AutoStepperConfig defaults() {
+        return new AutoStepperConfig(170f, 70f, 0.05f, 0.0f, -0.11, false, false, false, true, 0.0f, 1, null, true, MusicLink.COPY);
+    }
+}
@@ -0,0 +1,171 @@
+package autostepper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps running over an input directory and makes charts for songs as they are added
+ * or changed, so songs dropped in during the day don't need a full re-run. The JVM,
+ * and with it the worker's Minim and the JIT, stays warm between songs.
+ * <p>
+ * Files are picked up once their size and modification time have stopped changing
+ * for a while, so a song that is still being copied in isn't analyzed half written.
+ * A song that changes again while it is being processed is queued once more when
+ * that job is done, never next to it: both would write the same output folder.
+ */
+final class FolderWatcher {
+
+    private static final Logger logger = Logger.getLogger(FolderWatcher.class.getName());
+
+    // how long a file has to stay unchanged before it counts as completely written
+    private static final long SETTLE_MILLIS = 2000;
+    private static final long POLL_MILLIS = 500;
+
+    private final RunReport report;
+    private final Path inputDir;
+    private final float duration;
+    private final String outputDir;
+    // songs that changed recently and haven't settled yet
+    private final Map<Path, Stamp> settling = new HashMap<>();
+    // the version of each song that was last queued, so repeated events for it are ignored
+    private final Map<Path, Stamp> queued = new HashMap<>();
+    // songs whose job hasn't finished yet; the jobs remove themselves
+    private final Set<Path> running = ConcurrentHashMap.newKeySet();
+    private final ExecutorService pool;
+    private final ThreadLocal<AutoStepper> workers;
+
+    private static final class Stamp {
+        final long size;
+        final long modified;
+        long seenAt;
+
+        Stamp(File f, long seenAt) {
+            this.size = f.length();
+            this.modified = f.lastModified();
+            this.seenAt = seenAt;
+        }
+
+        boolean sameFile(Stamp other) {
+            return other != null && size == other.size && modified == other.modified;
+        }
+    }
+
+    FolderWatcher(AutoStepperConfig config, RunReport report, File inputDir, float duration, String outputDir) {
+        this.report = report;
+        this.inputDir = inputDir.toPath();
+        this.duration = duration;
+        this.outputDir = outputDir;
+        this.pool = Executors.newFixedThreadPool(config.threads);
+        this.workers = ThreadLocal.withInitial(() -> new AutoStepper(config, report));
+    }
+
+    /** Watches until the thread is interrupted or the directory goes away. */
+    void run() throws IOException, InterruptedException {
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            inputDir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            if (logger.isLoggable(Level.INFO)) logger.info(String.format("Watching %s for new songs", inputDir.toAbsolutePath()));
+            scan();
+            while (true) {
+                WatchKey key = watcher.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // events were dropped, look at everything again
+                            scan();
+                        } else {
+                            changed(inputDir.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!key.reset()) {
+                        logger.warning(String.format("Can't watch %s any more, stopping", inputDir.toAbsolutePath()));
+                        return;
+                    }
+                }
+                queueSettled();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // picks up songs that don't have a chart yet, or whose chart is older than the song
+    private void scan() {
+        File[] files = inputDir.toFile().listFiles();
+        if (files == null) return;
+        long now = System.currentTimeMillis();
+        for (File f : files) {
+            if (!AutoStepper.isSupportedAudioFile(f)) continue;
+            File sm = SMGenerator.getSMFile(f, outputDir);
+            if (sm.isFile() && sm.lastModified() >= f.lastModified()) {
+                queued.put(f.toPath(), new Stamp(f, now));
+            } else {
+                changed(f.toPath());
+            }
+        }
+    }
+
+    private void changed(Path path) {
+        File f = path.toFile();
+        if (!AutoStepper.isSupportedAudioFile(f)) return;
+        Stamp stamp = new Stamp(f, System.currentTimeMillis());
+        if (stamp.sameFile(queued.get(path)) || stamp.sameFile(settling.get(path))) return;
+        settling.put(path, stamp);
+    }
+
+    private void queueSettled() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Map.Entry<Path, Stamp>> it = settling.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Path, Stamp> entry = it.next();
+            File f = entry.getKey().toFile();
+            if (!f.isFile()) {
+                it.remove();
+                continue;
+            }
+            Stamp last = entry.getValue();
+            Stamp current = new Stamp(f, now);
+            if (!current.sameFile(last)) {
+                // still being written
+                entry.setValue(current);
+            } else if (now - last.seenAt >= SETTLE_MILLIS && current.size > 0 && !running.contains(entry.getKey())) {
+                // a song still being processed stays here until its job is done
+                it.remove();
+                queued.put(entry.getKey(), current);
+                submit(f);
+            }
+        }
+    }
+
+    private void submit(File f) {
+        if (logger.isLoggable(Level.INFO)) logger.info(String.format("Queued %s", f.getName()));
+        Path path = f.toPath();
+        running.add(path);
+        pool.submit(() -> {
+            try {
+                workers.get().analyzeUsingAudioRecordingStream(f, duration, outputDir);
+            } catch (RuntimeException e) {
+                // one bad file must not take the watcher down with it
+                if (logger.isLoggable(Level.WARNING)) logger.warning(String.format("Failed to process %s: %s", f.getName(), e));
+            } finally {
+                running.remove(path);
+            }
+            // there is no end of the batch to wait for, so keep the report current
+            report.save();
+        });
+    }
+}
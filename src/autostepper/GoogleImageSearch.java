@@ -16,25 +16,39 @@ import org.jsoup.select.Elements;
 public class GoogleImageSearch {
 		
     private static final Logger logger = Logger.getLogger(GoogleImageSearch.class.getName());
+    private static final String SEARCH_URL = "https://www.google.com/search";
 
     private GoogleImageSearch() {}
-    public static void findAndSaveImage(String question, String destination) {
+
+    /**
+     * Saves the first image found for question to destination. Returns false when
+     * the search found no images; throws when it couldn't be asked or the image
+     * couldn't be downloaded, so that isn't taken for "no images".
+     */
+    public static boolean findAndSaveImage(String question, String destination) throws IOException {
+        return findAndSaveImage(SEARCH_URL, question, destination);
+    }
+
+    /** {@link #findAndSaveImage(String, String)} against another search page that answers like Google's. */
+    public static boolean findAndSaveImage(String searchUrl, String question, String destination) throws IOException {
         String ua = "Mozilla/5.0 (Windows NT 10.0; Win64; x64; rv:59.0) Gecko/20100101 Firefox/59.0";
 
+        String googleUrl = searchUrl + "?as_st=y&tbm=isch&as_q=" + question.replace(",", "+").replace(" ", "+") + "&as_epq=&as_oq=&as_eq=&cr=&as_sitesearch=&safe=images&tbs=isz:lt,islt:vga,iar:w";
+        Document doc1 = Jsoup.connect(googleUrl).userAgent(ua).timeout(8 * 1000).get();
+        Elements elems = doc1.select("[data-src]");
+        if( elems.isEmpty() ) {
+            if (AutoStepper.isStepDebug() && logger.isLoggable(Level.FINE)) logger.fine(String.format("Couldn't find any images for: %s", question));
+            return false;
+        }
+        Element media = elems.first();
+        String finUrl = media.attr("abs:data-src"); 
         try {
-            String googleUrl = "https://www.google.com/search?as_st=y&tbm=isch&as_q=" + question.replace(",", "+").replace(" ", "+") + "&as_epq=&as_oq=&as_eq=&cr=&as_sitesearch=&safe=images&tbs=isz:lt,islt:vga,iar:w";
-            Document doc1 = Jsoup.connect(googleUrl).userAgent(ua).timeout(8 * 1000).get();
-            Elements elems = doc1.select("[data-src]");
-            if( elems.isEmpty() ) {
-                if (AutoStepper.isStepDebug() && logger.isLoggable(Level.FINE)) logger.fine(String.format("Couldn't find any images for: %s", question));
-                return;
-            }
-            Element media = elems.first();
-            String finUrl = media.attr("abs:data-src"); 
             saveImage(finUrl.replace("&quot", ""), destination);
-        } catch (Exception e) {
-            if (AutoStepper.isStepDebug()) logger.fine(e.toString());
+        } catch (IllegalArgumentException e) {
+            // not a URL that can be downloaded from
+            throw new IOException("Bad image URL: " + finUrl, e);
         }
+        return true;
     }
 
     public static void saveImage(String imageUrl, String destinationFile) throws IOException {
@@ -0,0 +1,69 @@
+package autostepper;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Puts the song next to its .sm file. Re-running over a library mostly finds the
+ * music already there, so a destination that is already the same file, or has the
+ * same contents, is left alone instead of being written again.
+ */
+final class MusicPlacement {
+
+    private static final Logger logger = Logger.getLogger(MusicPlacement.class.getName());
+
+    private MusicPlacement() {}
+
+    /** Makes target hold the music of source, the way link asks for. */
+    static void place(Path source, Path target, AutoStepperConfig.MusicLink link) throws IOException {
+        if (Files.exists(target, LinkOption.NOFOLLOW_LINKS) && upToDate(source, target, link)) {
+            if (AutoStepper.isStepDebug() && logger.isLoggable(Level.FINE)) logger.fine(String.format("Music already in place: %s", target));
+            return;
+        }
+        if (link != AutoStepperConfig.MusicLink.COPY) {
+            try {
+                Files.deleteIfExists(target);
+                if (link == AutoStepperConfig.MusicLink.HARD) {
+                    Files.createLink(target, source);
+                } else {
+                    Files.createSymbolicLink(target, source.toAbsolutePath());
+                }
+                return;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                // another file system, or one without links
+                logger.warning(String.format("Could not link %s, copying it instead: %s", target, e.getMessage()));
+            }
+        }
+        // the file system copies this itself where it can, and the modification
+        // time is kept so the next run can tell the copy is current
+        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+    }
+
+    private static boolean upToDate(Path source, Path target, AutoStepperConfig.MusicLink link) throws IOException {
+        boolean symbolic = Files.isSymbolicLink(target);
+        // the song itself, when it's already in its output folder; never replaced,
+        // that would delete the song
+        if (!symbolic && source.toRealPath().equals(target.toRealPath())) return true;
+        if (link == AutoStepperConfig.MusicLink.SYM) {
+            return symbolic && Files.readSymbolicLink(target).equals(source.toAbsolutePath());
+        }
+        // a link or a copy is replaced when the other was asked for
+        if (symbolic) return false;
+        boolean hardLink = Files.isSameFile(source, target);
+        if (link == AutoStepperConfig.MusicLink.HARD) return hardLink;
+        if (hardLink) return false;
+        if (Files.size(source) != Files.size(target)) return false;
+        if (Files.getLastModifiedTime(source).equals(Files.getLastModifiedTime(target))) return true;
+        // same size but another time, e.g. copied by an older version: compare the
+        // contents, which only reads, and remember the result in the time
+        if (Files.mismatch(source, target) != -1) return false;
+        Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+        return true;
+    }
+}
@@ -0,0 +1,209 @@
+package autostepper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.simple.JSONValue;
+
+/**
+ * Collects the {@link SongTiming} of every song in a run and writes them out as a
+ * report, JSON or CSV depending on the file name, so slow stages and outlier files
+ * can be found and runs compared with each other. Songs may finish on any thread.
+ */
+final class RunReport {
+
+    private static final Logger logger = Logger.getLogger(RunReport.class.getName());
+    private static final double NANOS = 1e9;
+    private static final double[] PERCENTILES = { 50, 90, 99, 100 };
+
+    private final File target;
+    private final long startNanos = System.nanoTime();
+    private final List<SongTiming> songs = new ArrayList<>();
+
+    /** @param target where {@link #save()} writes the report, or null for no report */
+    RunReport(File target) {
+        this.target = target;
+    }
+
+    synchronized void add(SongTiming timing) {
+        songs.add(timing);
+        if (AutoStepper.isStepDebug() && logger.isLoggable(Level.FINE)) {
+            StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%s: %.3fs wall, %.3fs cpu, %.1fx realtime",
+                    timing.song, timing.wallNanos() / NANOS, timing.cpuNanos() / NANOS, timing.realtimeFactor()));
+            for (Map.Entry<String, long[]> stage : timing.stages().entrySet()) {
+                line.append(String.format(Locale.ROOT, ", %s %.3fs", stage.getKey(), stage.getValue()[0] / NANOS));
+            }
+            logger.fine(line.toString());
+        }
+    }
+
+    /** The timings of the songs so far, in the order they finished. */
+    synchronized List<SongTiming> songs() {
+        return new ArrayList<>(songs);
+    }
+
+    /** Writes the report for the songs so far; does nothing if no report was asked for. */
+    synchronized void save() {
+        if (target == null) return;
+        try {
+            File parent = target.getAbsoluteFile().getParentFile();
+            if (parent != null) Files.createDirectories(parent.toPath());
+            try (Writer out = Files.newBufferedWriter(target.toPath(), StandardCharsets.UTF_8)) {
+                if (target.getName().toLowerCase(Locale.ROOT).endsWith(".csv")) {
+                    writeCsv(out);
+                } else {
+                    JSONValue.writeJSONString(toJson(), out);
+                }
+            }
+            if (logger.isLoggable(Level.INFO)) logger.info(String.format("Wrote run report for %d songs to %s", songs.size(), target.getPath()));
+        } catch (IOException e) {
+            logger.warning(String.format("Could not write the run report to %s: %s", target.getPath(), e.getMessage()));
+        }
+    }
+
+    private Map<String, Object> toJson() {
+        List<Object> songList = new ArrayList<>();
+        for (SongTiming song : songs) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("song", song.song);
+            entry.put("succeeded", song.succeeded());
+            entry.put("cachedAnalysis", song.cached());
+            entry.put("wallSeconds", song.wallNanos() / NANOS);
+            entry.put("cpuSeconds", song.cpuNanos() / NANOS);
+            entry.put("audioSeconds", (double) song.audioSeconds());
+            entry.put("realtimeFactor", song.realtimeFactor());
+            entry.put("bytesRead", song.bytesRead());
+            entry.put("peakHeapBytes", song.peakHeapBytes());
+            Map<String, Object> stages = new LinkedHashMap<>();
+            for (Map.Entry<String, long[]> stage : song.stages().entrySet()) {
+                Map<String, Object> times = new LinkedHashMap<>();
+                times.put("wallSeconds", stage.getValue()[0] / NANOS);
+                times.put("cpuSeconds", stage.getValue()[1] / NANOS);
+                stages.put(stage.getKey(), times);
+            }
+            entry.put("stages", stages);
+            songList.add(entry);
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("songs", songs.size());
+        summary.put("runWallSeconds", (System.nanoTime() - startNanos) / NANOS);
+        summary.put("peakHeapBytes", (long) percentile(column(s -> s.peakHeapBytes()), 100));
+        summary.put("wallSeconds", percentiles(column(s -> s.wallNanos() / NANOS)));
+        summary.put("cpuSeconds", percentiles(column(s -> s.cpuNanos() / NANOS)));
+        summary.put("realtimeFactor", percentiles(column(SongTiming::realtimeFactor)));
+        Map<String, Object> stageSummary = new LinkedHashMap<>();
+        for (String stage : stageNames()) {
+            stageSummary.put(stage, percentiles(column(s -> stageWall(s, stage))));
+        }
+        summary.put("stageWallSeconds", stageSummary);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("summary", summary);
+        report.put("songs", songList);
+        return report;
+    }
+
+    private void writeCsv(Writer out) throws IOException {
+        Set<String> stages = stageNames();
+        StringBuilder header = new StringBuilder("song,succeeded,cached_analysis,wall_s,cpu_s,audio_s,realtime_factor,bytes_read,peak_heap_bytes");
+        for (String stage : stages) header.append(',').append(stage).append("_wall_s,").append(stage).append("_cpu_s");
+        out.write(header.append('\n').toString());
+        for (SongTiming song : songs) {
+            StringBuilder row = new StringBuilder(csvField(song.song));
+            row.append(',').append(song.succeeded()).append(',').append(song.cached());
+            row.append(',').append(seconds(song.wallNanos())).append(',').append(seconds(song.cpuNanos()));
+            row.append(',').append(song.audioSeconds()).append(',').append(String.format(Locale.ROOT, "%.3f", song.realtimeFactor()));
+            row.append(',').append(song.bytesRead()).append(',').append(song.peakHeapBytes());
+            Map<String, long[]> times = song.stages();
+            for (String stage : stages) {
+                long[] t = times.getOrDefault(stage, new long[2]);
+                row.append(',').append(seconds(t[0])).append(',').append(seconds(t[1]));
+            }
+            out.write(row.append('\n').toString());
+        }
+        // the percentiles go in the song column of rows of their own
+        for (double p : PERCENTILES) {
+            StringBuilder row = new StringBuilder(percentileName(p)).append(",,");
+            row.append(',').append(format(percentile(column(s -> s.wallNanos() / NANOS), p)));
+            row.append(',').append(format(percentile(column(s -> s.cpuNanos() / NANOS), p)));
+            row.append(',').append(format(percentile(column(s -> s.audioSeconds()), p)));
+            row.append(',').append(format(percentile(column(SongTiming::realtimeFactor), p)));
+            row.append(',').append(format(percentile(column(s -> s.bytesRead()), p)));
+            row.append(',').append(format(percentile(column(s -> s.peakHeapBytes()), p)));
+            for (String stage : stages) {
+                row.append(',').append(format(percentile(column(s -> stageWall(s, stage)), p)));
+                row.append(',').append(format(percentile(column(s -> stageCpu(s, stage)), p)));
+            }
+            out.write(row.append('\n').toString());
+        }
+    }
+
+    private Set<String> stageNames() {
+        Set<String> names = new LinkedHashSet<>();
+        for (SongTiming song : songs) names.addAll(song.stages().keySet());
+        return names;
+    }
+
+    private double[] column(ToDoubleFunction<SongTiming> value) {
+        double[] values = new double[songs.size()];
+        for (int i = 0; i < values.length; i++) values[i] = value.applyAsDouble(songs.get(i));
+        return values;
+    }
+
+    private static double stageWall(SongTiming song, String stage) {
+        long[] t = song.stages().get(stage);
+        return t == null ? 0 : t[0] / NANOS;
+    }
+
+    private static double stageCpu(SongTiming song, String stage) {
+        long[] t = song.stages().get(stage);
+        return t == null ? 0 : t[1] / NANOS;
+    }
+
+    private static Map<String, Object> percentiles(double[] values) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (double p : PERCENTILES) result.put(percentileName(p), percentile(values, p));
+        return result;
+    }
+
+    // nearest rank; 0 when there are no songs
+    private static double percentile(double[] values, double p) {
+        if (values.length == 0) return 0;
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(p / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    private static String percentileName(double p) {
+        return p >= 100 ? "max" : "p" + (int) p;
+    }
+
+    private static String seconds(long nanos) {
+        return format(nanos / NANOS);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -7,14 +7,14 @@ package autostepper;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
 
@@ -23,6 +23,17 @@ public class SMGenerator {
  
     private static final Logger logger = Logger.getLogger(SMGenerator.class.getName());
     private static final String DIR_SUFFIX = "_dir/";
+    private static final String ARTWORK_CACHE_DIR = ".artwork-cache";
+    // artwork lookups mostly wait on the network, so they get threads of their own
+    // rather than taking turns with the chart generators in the common pool
+    private static final ExecutorService IMAGE_LOOKUPS = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "image-lookup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Where artwork is looked up unless the caller says otherwise: Google Images. */
+    static final ArtworkCache.Search IMAGE_SEARCH = (searchTerm, imgFile) -> GoogleImageSearch.findAndSaveImage(searchTerm, imgFile.getAbsolutePath());
 
     private SMGenerator() {}
     private static final String HEADER = 
@@ -48,15 +59,15 @@ public class SMGenerator {
             "#KEYSOUNDS:;\n" +
             "#ATTACKS:;";
     
-    public static String getChallenge() { return "Challenge:\n" + (AutoStepper.isHardMode() ? "     10:" : "     9:"); }
+    public static String getChallenge(boolean hardMode) { return "Challenge:\n" + (hardMode ? "     10:" : "     9:"); }
 
-    public static String getHard() { return "Hard:\n" + (AutoStepper.isHardMode() ? "     8:" : "     7:"); }
+    public static String getHard(boolean hardMode) { return "Hard:\n" + (hardMode ? "     8:" : "     7:"); }
 
-    public static String getMedium() { return "Medium:\n" + (AutoStepper.isHardMode() ? "     6:" : "     5:"); }
+    public static String getMedium(boolean hardMode) { return "Medium:\n" + (hardMode ? "     6:" : "     5:"); }
 
-    public static String getEasy() { return "Easy:\n" + (AutoStepper.isHardMode() ? "     4:" : "     3:"); }
+    public static String getEasy(boolean hardMode) { return "Easy:\n" + (hardMode ? "     4:" : "     3:"); }
 
-    public static String getBeginner() { return "Beginner:\n" + (AutoStepper.isHardMode() ? "     2:" : "     1:"); }
+    public static String getBeginner(boolean hardMode) { return "Beginner:\n" + (hardMode ? "     2:" : "     1:"); }
     
     private static final String NOTE_FRAMEWORK =
             "//---------------dance-single - ----------------\n" +
@@ -67,25 +78,30 @@ public class SMGenerator {
             "     0.733800,0.772920,0.048611,0.850698,0.060764,634.000000,628.000000,6.000000,105.000000,8.000000,0.000000,0.733800,0.772920,0.048611,0.850698,0.060764,634.000000,628.000000,6.000000,105.000000,8.000000,0.000000:\n" +
             "$NOTES\n" +
             ";\n\n";
+    // the framework before and after the notes, so a chart can be written between them
+    private static final String NOTES_START = NOTE_FRAMEWORK.substring(0, NOTE_FRAMEWORK.indexOf("$NOTES"));
+    private static final String NOTES_END = NOTE_FRAMEWORK.substring(NOTE_FRAMEWORK.indexOf("$NOTES") + "$NOTES".length());
 
     public static String getHeader() { return HEADER; }
     
     public static String getNoteFramework() { return NOTE_FRAMEWORK; }
 
-    private static void copyFileUsingStream(File source, File dest) throws IOException {
-        try (InputStream is = new FileInputStream(source);
-             OutputStream os = new FileOutputStream(dest)) {
-            byte[] buffer = new byte[1024];
-            int length;
-            while ((length = is.read(buffer)) > 0) {
-                os.write(buffer, 0, length);
-            }
-        }
-    }    
-    
     public static void addNotes(BufferedWriter smfile, String difficulty, String notes) {
         try {
-            smfile.write(getNoteFramework().replace("$DIFFICULTY", difficulty).replace("$NOTES", notes));
+            smfile.write(NOTES_START.replace("$DIFFICULTY", difficulty));
+            smfile.write(notes);
+            smfile.write(NOTES_END);
+        } catch(Exception e) { 
+            // Ignore exceptions during note writing
+        }
+    }
+
+    /** Writes a generated chart straight from its generator, a measure at a time. */
+    static void addNotes(Writer smfile, String difficulty, StepGenerator chart) {
+        try {
+            smfile.write(NOTES_START.replace("$DIFFICULTY", difficulty));
+            chart.writeNotes(smfile);
+            smfile.write(NOTES_END);
         } catch(Exception e) { 
             // Ignore exceptions during note writing
         }
@@ -105,20 +121,93 @@ public class SMGenerator {
         return new File(dir, filename + ".sm");
     }
     
-    public static BufferedWriter generateSmFromPath(float bpm, float startTime, File songfile, String outputdir) {
+    public static BufferedWriter generateSmFromPath(float bpm, float startTime, File songfile, String outputdir, AutoStepperConfig config) {
+        return generateSmFromPath(bpm, startTime, songfile, outputdir, config, new SongTiming(songfile.getName()));
+    }
+
+    @SuppressWarnings("java:S00107")
+    static BufferedWriter generateSmFromPath(float bpm, float startTime, File songfile, String outputdir, AutoStepperConfig config, SongTiming timing) {
+        return generateSmFromPath(bpm, startTime, startHeader(songfile, outputdir, config, IMAGE_SEARCH, timing), outputdir, config, timing);
+    }
+
+    /** What goes in the header besides the timing: the song's tags, and its artwork once the lookup is done. */
+    static final class SongHeader {
+        private final File songfile;
+        private final SongMetadata metadata;
+        // the artwork in the cache, or null; only put in the song's folder with the chart
+        private final CompletableFuture<Path> artwork;
+
+        private SongHeader(File songfile, SongMetadata metadata, CompletableFuture<Path> artwork) {
+            this.songfile = songfile;
+            this.metadata = metadata;
+            this.artwork = artwork;
+        }
+
+        /**
+         * For a song that won't get a chart after all. The lookup has its own thread
+         * and is already running, so this waits for it to finish: it may only fill
+         * the cache, but nothing should still write to the output folder after the song.
+         */
+        void discard() {
+            artwork.join();
+        }
+    }
+
+    /**
+     * Reads the song's tags and starts looking for its artwork in the background,
+     * so the lookup's network wait overlaps decoding and analyzing the song.
+     */
+    static SongHeader startHeader(File songfile, String outputdir, AutoStepperConfig config, ArtworkCache.Search imageSearch, SongTiming timing) {
         String filename = songfile.getName();
         
         // Extract and process song metadata
-        SongMetadata metadata = extractSongMetadata(songfile, filename);
+        SongMetadata metadata;
+        SongTiming.Stage tagsStage = timing.stage("tags");
+        try {
+            metadata = extractSongMetadata(songfile, filename);
+        } finally {
+            tagsStage.end();
+        }
         
         // Try to find or download image
-        String imgFileName = findImageFile(metadata.shortName, metadata.artist, new File(outputdir, filename + DIR_SUFFIX), filename);
+        File imgFile = imageFile(new File(outputdir, filename + DIR_SUFFIX), filename);
+        ArtworkCache cache = new ArtworkCache(new File(outputdir, ARTWORK_CACHE_DIR));
+        CompletableFuture<Path> artwork = CompletableFuture.supplyAsync(() -> {
+            SongTiming.Stage lookupStage = timing.stage("imageLookup");
+            try {
+                return findArtwork(metadata.shortName, metadata.artist, imgFile, config.downloadImages, cache, imageSearch);
+            } finally {
+                lookupStage.end();
+            }
+        }, IMAGE_LOOKUPS).exceptionally(e -> {
+            // artwork is optional, so it never costs the song its chart
+            logger.warning(String.format("Artwork lookup failed for %s: %s", filename, e));
+            return null;
+        });
+        return new SongHeader(songfile, metadata, artwork);
+    }
+
+    @SuppressWarnings("java:S00107")
+    static BufferedWriter generateSmFromPath(float bpm, float startTime, SongHeader header, String outputdir, AutoStepperConfig config, SongTiming timing) {
+        String filename = header.songfile.getName();
+        
+        // only waits if the lookup is still going after the analysis
+        Path artwork;
+        SongTiming.Stage waitStage = timing.stage("imageWait");
+        try {
+            artwork = header.artwork.join();
+        } finally {
+            waitStage.end();
+        }
         
         // Set up output files
         File smfile = setupOutputFile(outputdir, filename);
+        File imgFile = imageFile(smfile.getParentFile(), filename);
+        if (artwork != null && !imgFile.exists()) ArtworkCache.place(artwork, imgFile);
+        String imgFileName = getImageFileName(imgFile);
         
         // Write SM file content
-        return writeSMFile(smfile, songfile, metadata, imgFileName, bpm, startTime, filename);
+        return writeSMFile(smfile, header.songfile, header.metadata, imgFileName, bpm, startTime + config.startSync, config.musicLink, timing);
     }
     
     private static class SongMetadata {
@@ -187,23 +276,28 @@ public class SMGenerator {
         }
     }
     
-    private static String findImageFile(String title, String artist, File dir, String filename) {
-        File imgFile = new File(dir, filename + "_img.png");
-        
-        if (!imgFile.exists() && AutoStepper.isDownloadImages()) {
+    private static File imageFile(File dir, String filename) {
+        return new File(dir, filename + "_img.png");
+    }
+    
+    // runs before the song is known to decode, so it only fills the cache; the
+    // song's folder is left alone until its chart is written
+    private static Path findArtwork(String title, String artist, File imgFile, boolean downloadImages, ArtworkCache cache, ArtworkCache.Search imageSearch) {
+        if (!imgFile.exists() && downloadImages) {
             if (AutoStepper.isStepDebug()) logger.fine("Attempting to get image for background & banner...");
             
             // Create better search terms using ID3 metadata when available
             String searchTerm = createImageSearchTerm(title, artist);
             
             if (!searchTerm.isEmpty()) {
-                downloadImage(searchTerm, imgFile);
+                // other songs by the same artist have usually searched for it already
+                return cache.find(searchTerm, imageSearch);
             }
-        } else if (!AutoStepper.isDownloadImages() && AutoStepper.isStepDebug()) {
+        } else if (!downloadImages && AutoStepper.isStepDebug()) {
             logger.fine("Image downloading disabled (use downloadimages=false to disable)");
         }
         
-        return getImageFileName(imgFile);
+        return null;
     }
     
     private static String createImageSearchTerm(String title, String artist) {
@@ -217,15 +311,6 @@ public class SMGenerator {
         return "";
     }
     
-    private static void downloadImage(String searchTerm, File imgFile) {
-        try {
-            // Try Google Images
-            GoogleImageSearch.findAndSaveImage(searchTerm, imgFile.getAbsolutePath());
-        } catch (Exception e) {
-            if (AutoStepper.isStepDebug()) logger.fine("Image search failed: " + e.getMessage());
-        }
-    }
-    
     private static String getImageFileName(File imgFile) {
         if (imgFile.exists()) {
             if (AutoStepper.isStepDebug()) logger.fine("Got an image file!");
@@ -242,19 +327,31 @@ public class SMGenerator {
         return new File(dir, filename + ".sm");
     }
     
-    private static BufferedWriter writeSMFile(File smfile, File songfile, SongMetadata metadata, String imgFileName, float bpm, float startTime, String filename) {
+    @SuppressWarnings("java:S00107")
+    private static BufferedWriter writeSMFile(File smfile, File songfile, SongMetadata metadata, String imgFileName, float bpm, float startTime, AutoStepperConfig.MusicLink musicLink, SongTiming timing) {
+        String filename = songfile.getName();
         try {
             deleteExistingSMFile(smfile);
-            copyFileUsingStream(songfile, new File(smfile.getParent(), filename));
-            BufferedWriter writer = new BufferedWriter(new FileWriter(smfile));
-            writer.write(HEADER.replace("$TITLE", metadata.shortName)
-                             .replace("$ARTIST", metadata.artist)
-                             .replace("$GENRE", metadata.genre)
-                             .replace("$BGIMAGE", imgFileName)
-                             .replace("$MUSICFILE", filename)
-                             .replace("$STARTTIME", Float.toString(startTime + AutoStepper.getStartSync()))
-                             .replace("$BPM", Float.toString(bpm)));
-            return writer;
+            SongTiming.Stage copyStage = timing.stage("musicCopy");
+            try {
+                MusicPlacement.place(songfile.toPath(), new File(smfile.getParent(), filename).toPath(), musicLink);
+            } finally {
+                copyStage.end();
+            }
+            SongTiming.Stage writeStage = timing.stage("smWrite");
+            try {
+                BufferedWriter writer = new BufferedWriter(new FileWriter(smfile));
+                writer.write(HEADER.replace("$TITLE", metadata.shortName)
+                                 .replace("$ARTIST", metadata.artist)
+                                 .replace("$GENRE", metadata.genre)
+                                 .replace("$BGIMAGE", imgFileName)
+                                 .replace("$MUSICFILE", filename)
+                                 .replace("$STARTTIME", Float.toString(startTime))
+                                 .replace("$BPM", Float.toString(bpm)));
+                return writer;
+            } finally {
+                writeStage.end();
+            }
         } catch(Exception e) {
             // Ignore exceptions during file writing
         }
@@ -270,8 +367,8 @@ public class SMGenerator {
         }
     }
     
-    public static BufferedWriter generateSmFromPath(float bpm, float startTime, String filename, String outputDir) {
+    public static BufferedWriter generateSmFromPath(float bpm, float startTime, String filename, String outputDir, AutoStepperConfig config) {
         File songFile = new File(filename);
-        return generateSmFromPath(bpm, startTime, songFile, outputDir);
+        return generateSmFromPath(bpm, startTime, songFile, outputDir, config);
     }
 }
@@ -0,0 +1,166 @@
+package autostepper;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Wall and CPU time spent in each stage of processing one song. Stages are timed
+ * with try/finally around the work:
+ * <pre>
+ *     SongTiming.Stage decodeStage = timing.stage("decode");
+ *     try { ... } finally { decodeStage.end(); }
+ * </pre>
+ * Time for a stage that runs more than once, or on several threads at the same
+ * time (the five charts), adds up.
+ */
+final class SongTiming {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    final String song;
+    private final Thread owner;
+    private final long startNanos;
+    private final long startCpuNanos;
+    // stage name -> {wall nanos, cpu nanos}, in the order the stages first ran
+    private final Map<String, long[]> stages = new LinkedHashMap<>();
+    private long wallNanos = -1;
+    private long cpuNanos;
+    private long bytesRead;
+    private long peakHeapBytes;
+    private float audioSeconds;
+    private boolean cached;
+    private boolean succeeded;
+
+    /** The time taken by one run of a stage, recorded when it ends. */
+    final class Stage {
+        private final String name;
+        private final long wallStart = System.nanoTime();
+        private final long cpuStart = threadCpuNanos();
+
+        private Stage(String name) {
+            this.name = name;
+        }
+
+        void end() {
+            add(name, System.nanoTime() - wallStart, threadCpuNanos() - cpuStart);
+        }
+    }
+
+    SongTiming(String song) {
+        this(song, false);
+    }
+
+    /**
+     * With ownsHeap, the JVM's heap high-water marks are reset here, so the peak
+     * reported for this song is its own; only right when no other song is
+     * being processed at the same time.
+     */
+    SongTiming(String song, boolean ownsHeap) {
+        if (ownsHeap) resetHeapHighWaterMark();
+        this.song = song;
+        this.owner = Thread.currentThread();
+        this.startNanos = System.nanoTime();
+        this.startCpuNanos = threadCpuNanos();
+    }
+
+    Stage stage(String name) {
+        return new Stage(name);
+    }
+
+    synchronized void add(String stage, long wall, long cpu) {
+        long[] total = stages.computeIfAbsent(stage, k -> new long[2]);
+        total[0] += wall;
+        total[1] += cpu;
+        // work done off the song's own thread isn't in its thread CPU time
+        if (Thread.currentThread() != owner) cpuNanos += cpu;
+    }
+
+    synchronized void addBytesRead(long bytes) {
+        bytesRead += bytes;
+    }
+
+    synchronized void setAudioSeconds(float seconds) {
+        audioSeconds = seconds;
+    }
+
+    synchronized void setCached(boolean cached) {
+        this.cached = cached;
+    }
+
+    /** Stops the clock on the song. */
+    synchronized void finish(boolean succeeded) {
+        this.succeeded = succeeded;
+        wallNanos = System.nanoTime() - startNanos;
+        cpuNanos += threadCpuNanos() - startCpuNanos;
+        peakHeapBytes = heapHighWaterMark();
+    }
+
+    synchronized long wallNanos() {
+        return wallNanos;
+    }
+
+    synchronized long cpuNanos() {
+        return cpuNanos;
+    }
+
+    synchronized long bytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * The JVM's heap high-water mark when the song finished. With threads=1 the
+     * marks are reset when each song starts, so this is the song's own peak;
+     * with more threads it is the peak of the whole run so far.
+     */
+    synchronized long peakHeapBytes() {
+        return peakHeapBytes;
+    }
+
+    synchronized float audioSeconds() {
+        return audioSeconds;
+    }
+
+    synchronized boolean cached() {
+        return cached;
+    }
+
+    synchronized boolean succeeded() {
+        return succeeded;
+    }
+
+    /** Seconds of audio per second of processing; above 1 is faster than real time. */
+    synchronized double realtimeFactor() {
+        return wallNanos > 0 ? audioSeconds / (wallNanos / 1e9) : 0;
+    }
+
+    /** Stage name to {wall nanos, cpu nanos}. */
+    synchronized Map<String, long[]> stages() {
+        Map<String, long[]> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> e : stages.entrySet()) copy.put(e.getKey(), e.getValue().clone());
+        return copy;
+    }
+
+    // the sum of every heap pool's high-water mark
+    private static long heapHighWaterMark() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    private static void resetHeapHighWaterMark() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) pool.resetPeakUsage();
+        }
+    }
+
+    /** CPU time of the calling thread, or 0 where the JVM can't measure it. */
+    static long threadCpuNanos() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0L;
+    }
+}
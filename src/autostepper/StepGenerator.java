@@ -1,8 +1,13 @@
 package autostepper;
 
 import gnu.trove.list.array.TFloatArrayList;
-import java.util.ArrayList;
-import java.util.Random;
+import gnu.trove.list.array.TShortArrayList;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 import java.util.logging.Logger;
 
 
@@ -10,20 +15,61 @@ import java.util.logging.Logger;
 public class StepGenerator {
     
     // https://github.com/stepmania/stepmania/wiki/Note-Types
-    private char empty = '0';
-    private char stop = '3';
-    private char mine = 'M';
-    
-    private Random rand = new Random();
+    // a row of notes is four 3 bit note codes, the first arrow in the lowest bits
+    private static final int EMPTY = 0;
+    private static final int TAP = 1;
+    private static final int HOLD = 2;
+    private static final int STOP = 3;
+    private static final int MINE = 4;
+    private static final String NOTE_CHARS = "0123M";
+    private static final int LANE_BITS = 3;
+    private static final int LANE_MASK = 0b111;
+    // the lowest bit of each lane
+    private static final int LANE_LOW_BITS = 0b001_001_001_001;
+    
+    // sustained holds start this far above the scaled midrange average...
+    private static final float SUSTAIN_ABOVE_AVG = 0.25f;
+    // ...and may not drop below the midrange average scaled by this
+    private static final float SUSTAIN_AVG_MULTIPLIER = 0.45f;
+    
+    private final SplittableRandom rand;
     
     private static final Logger logger = Logger.getLogger(StepGenerator.class.getName());
     
     private float[] holding = new float[4];
     private float lastJumpTime;
-    private ArrayList<char[]> allNoteLines = new ArrayList<>();
+    private final TShortArrayList allNoteLines = new TShortArrayList();
+    // reused for every slot of the grid
+    private final boolean[] stepArray = new boolean[4];
+    private final StepDecision decision = new StepDecision();
     private int mineCount;
-    private int commaSeperator;
     private int commaSeperatorReset;
+    private final NoteStatistics stats = new NoteStatistics();
+    private OnsetCursor kickCursor;
+    private OnsetCursor snareCursor;
+    private OnsetCursor energyCursor;
+    private SustainIndex sustainIndex;
+    
+    public StepGenerator() {
+        this(new SplittableRandom(), null);
+    }
+    
+    /**
+     * @param rand source of every random choice made for the charts, seed it to get the same charts again
+     * @param sustainIndex index of the song's fft frames shared by all difficulties, or null to build one on demand
+     */
+    StepGenerator(SplittableRandom rand, SustainIndex sustainIndex) {
+        this.rand = rand;
+        this.sustainIndex = sustainIndex;
+    }
+    
+    /**
+     * Builds the sustained-hold index for one song. It is read-only, so one
+     * index can be shared by generators running at the same time.
+     */
+    static SustainIndex indexSustain(TFloatArrayList fftMaxes, TFloatArrayList fftAverages) {
+        return new SustainIndex(fftMaxes, fftAverages, SUSTAIN_ABOVE_AVG, SUSTAIN_AVG_MULTIPLIER);
+    }
     
     private int getHoldCount() {
         int ret = 0;
@@ -47,72 +93,92 @@ public class StepGenerator {
         return -1;
     }
     
+    private static int note(int row, int lane) {
+        return (row >> (lane * LANE_BITS)) & LANE_MASK;
+    }
+    
+    private static int withNote(int row, int lane, int note) {
+        int shift = lane * LANE_BITS;
+        return (row & ~(LANE_MASK << shift)) | (note << shift);
+    }
+    
+    // lanes of the row holding this note
+    private static int countNotes(int row, int note) {
+        // lanes that match are all zeros after the xor, fold each lane into its low bit
+        int diff = row ^ (note * LANE_LOW_BITS);
+        int differing = (diff | diff >> 1 | diff >> 2) & LANE_LOW_BITS;
+        return 4 - Integer.bitCount(differing);
+    }
+    
+    // whether the row has a tap, hold or stop; mines don't count. only mines
+    // have the top bit of a lane set, so checking the lower two bits is enough
+    private static boolean hasArrows(int row) {
+        return ((row | row >> 1) & LANE_LOW_BITS) != 0;
+    }
+    
     // make a note line, with lots of checks, balances & filtering
-    private char[] getHoldStops(int currentHoldCount, int holds) {
-        char[] holdstops = new char[4];
-        holdstops[0] = empty;
-        holdstops[1] = empty;
-        holdstops[2] = empty;
-        holdstops[3] = empty;
+    private int getHoldStops(int currentHoldCount, int holds) {
+        int holdstops = EMPTY;
         if( currentHoldCount > 0 ) {
-            processNegativeHolds(holds, holdstops, currentHoldCount);
-            updateExistingHolds(holdstops, currentHoldCount);
+            holdstops = processNegativeHolds(holds, holdstops);
+            holdstops = updateExistingHolds(holdstops);
         }        
         // add new holds if needed
         if( holds > 0 ) {
             int index = getRandomHold();
             if( index != -1 ) {
-                holdstops[index] = '2';
+                holdstops = withNote(holdstops, index, HOLD);
                 holding[index] = 1f;
             }
         }
         return holdstops;
     }
     
-    private int processNegativeHolds(int holds, char[] holdstops, int currentHoldCount) {
+    private int processNegativeHolds(int holds, int holdstops) {
         while( holds < 0 ) {
             int index = getRandomHold();
             if( index == -1 ) {
                 holds = 0;
-                currentHoldCount = 0;
             } else {
                 holding[index] = 0f;
-                holdstops[index] = stop;
+                holdstops = withNote(holdstops, index, STOP);
                 holds++; 
-                currentHoldCount--;
             }
         }
-        return currentHoldCount;
+        return holdstops;
     }
     
-    private int updateExistingHolds(char[] holdstops, int currentHoldCount) {
+    private int updateExistingHolds(int holdstops) {
         for(int i=0;i<4;i++) {
             if( holding[i] > 0f ) {
                 holding[i] -= 1f;
                 if( holding[i] <= 0f ) {
                     holding[i] = 0f;
-                    holdstops[i] = stop;
-                    currentHoldCount--;
+                    holdstops = withNote(holdstops, i, STOP);
                 }
             } 
         }
-        return currentHoldCount;
+        return holdstops;
     }
     
-    private String getNoteLineIndex(int i) {
-        if( i < 0 || i >= allNoteLines.size() ) return "" + empty + empty + empty + empty;
-        return String.valueOf(allNoteLines.get(i));
+    private int getNoteLineIndex(int i) {
+        if( i < 0 || i >= allNoteLines.size() ) return EMPTY;
+        return allNoteLines.getQuick(i);
     }
     
-    private String getLastNoteLine() {
+    private int getLastNoteLine() {
         return getNoteLineIndex(allNoteLines.size()-1);
     }
     
-    private void makeNoteLine(String lastLine, float time, boolean[] placeStep, int holds, boolean mines) {
+    private void addNoteLine(int row) {
+        allNoteLines.add((short) row);
+        stats.add(row);
+    }
+    
+    private void makeNoteLine(int lastLine, float time, boolean[] placeStep, int holds, boolean mines) {
         int steps = countSteps(placeStep);
         if( steps == 0 ) {
-            char[] ret = getHoldStops(getHoldCount(), holds);
-            allNoteLines.add(ret);
+            addNoteLine(getHoldStops(getHoldCount(), holds));
             return;
         }
         
@@ -122,18 +188,17 @@ public class StepGenerator {
         }
         
         holds = adjustHoldsAndSteps(placeStep, holds, steps);
-        char[] noteLine = getHoldStops(getHoldCount(), holds);
+        int noteLine = getHoldStops(getHoldCount(), holds);
         
         if( mines ) {
-            addMines(noteLine);
+            noteLine = addMines(noteLine);
         }
         
-        String completeLine = String.valueOf(noteLine);
-        if( shouldRetryLine(completeLine, lastLine) ) {
+        if( shouldRetryLine(noteLine, lastLine) ) {
             noteLine = retryWithRandomPlacement(placeStep, holds);
         }
         
-        allNoteLines.add(noteLine);
+        addNoteLine(noteLine);
     }
     
     private int countSteps(boolean[] placeStep) {
@@ -175,48 +240,62 @@ public class StepGenerator {
         return holds;
     }
     
-    private char[] addMines(char[] noteLine) {
+    private int addMines(int noteLine) {
         mineCount--;
         if( mineCount <= 0 ) {
             mineCount = rand.nextInt(8);
-            if( rand.nextInt(8) == 0 && noteLine[0] == empty && holding[0] <= 0f ) noteLine[0] = mine;
-            if( rand.nextInt(8) == 0 && noteLine[1] == empty && holding[1] <= 0f ) noteLine[1] = mine;
-            if( rand.nextInt(8) == 0 && noteLine[2] == empty && holding[2] <= 0f ) noteLine[2] = mine;
-            if( rand.nextInt(8) == 0 && noteLine[3] == empty && holding[3] <= 0f ) noteLine[3] = mine;
+            for(int i=0;i<4;i++) {
+                if( rand.nextInt(8) == 0 && note(noteLine, i) == EMPTY && holding[i] <= 0f ) noteLine = withNote(noteLine, i, MINE);
+            }
         }
         return noteLine;
     }
     
-    private boolean shouldRetryLine(String completeLine, String lastLine) {
-        return completeLine.equals(lastLine) && !completeLine.equals("0000");
+    private boolean shouldRetryLine(int noteLine, int lastLine) {
+        return noteLine == lastLine && noteLine != EMPTY;
     }
     
-    private char[] retryWithRandomPlacement(boolean[] placeStep, int holds) {
-        ArrayList<Integer> avail = new ArrayList<>();
-        for(int i=0;i<4;i++) if(placeStep[i] && holding[i] <= 0f) avail.add(i);
-        if(!avail.isEmpty()) {
-            int idx = rand.nextInt(avail.size());
-            int alt = avail.get(idx);
-            boolean[] altPlace = new boolean[4];
-            altPlace[alt] = true;
+    private int retryWithRandomPlacement(boolean[] placeStep, int holds) {
+        int avail = 0;
+        for(int i=0;i<4;i++) if(placeStep[i] && holding[i] <= 0f) avail++;
+        if( avail > 0 ) {
+            // an alternative arrow is drawn, though the line is rebuilt from the holds
+            // alone; the draw stays so seeded charts don't change
+            rand.nextInt(avail);
             int currentHoldCount = getHoldCount();
             if( holds + currentHoldCount > 2 ) holds = 2 - currentHoldCount;
-            char[] noteLine = getHoldStops(currentHoldCount, holds);
-            String completeLine = String.valueOf(noteLine);
-            if( completeLine.equals(getLastNoteLine()) && !completeLine.equals("0000") ) {
+            int noteLine = getHoldStops(currentHoldCount, holds);
+            if( shouldRetryLine(noteLine, getLastNoteLine()) ) {
                 return noteLine;
             }
         }
         return getHoldStops(getHoldCount(), holds);
     }
     
-    private boolean isNearATime(float time, TFloatArrayList timelist, float threshold) {
-        for(int i=0;i<timelist.size();i++) {
-            float checktime = timelist.get(i);
-            if( Math.abs(checktime - time) <= threshold ) return true;
-            if( checktime > time + threshold ) return false;
+    // Walks one onset list alongside the grid. Grid times only move forward, so
+    // an onset that is already too far behind one slot is too far behind every
+    // later slot too, and each onset is skipped at most once per chart.
+    private static class OnsetCursor {
+        private final TFloatArrayList timelist;
+        private int start;
+
+        OnsetCursor(TFloatArrayList timelist) {
+            this.timelist = timelist;
+        }
+
+        boolean isNearATime(float time, float threshold) {
+            while( start < timelist.size() ) {
+                float checktime = timelist.getQuick(start);
+                if( checktime >= time || Math.abs(checktime - time) <= threshold ) break;
+                start++;
+            }
+            for(int i=start;i<timelist.size();i++) {
+                float checktime = timelist.getQuick(i);
+                if( Math.abs(checktime - time) <= threshold ) return true;
+                if( checktime > time + threshold ) return false;
+            }
+            return false;
         }
-        return false;
     }
     
     private float getFft(float time, TFloatArrayList fftMaxes, float timePerFft) {
@@ -251,27 +330,73 @@ public class StepGenerator {
         }
     }
     
+    // Prefix counts over one song's fft frames, so a sustained-hold query is two
+    // subtractions instead of a walk over its whole window. Built once per song
+    // and reused by every difficulty.
+    static class SustainIndex {
+        private final TFloatArrayList fftMaxes;
+        private final TFloatArrayList fftAvg;
+        private final float aboveAvg;
+        private final float averageMultiplier;
+        // startFrames[i] = frames before i loud enough to start a hold
+        private final int[] startFrames;
+        // quietFrames[i] = frames before i below the (scaled) average
+        private final int[] quietFrames;
+
+        SustainIndex(TFloatArrayList fftMaxes, TFloatArrayList fftAvg, float aboveAvg, float averageMultiplier) {
+            this.fftMaxes = fftMaxes;
+            this.fftAvg = fftAvg;
+            this.aboveAvg = aboveAvg;
+            this.averageMultiplier = averageMultiplier;
+            int size = fftMaxes.size();
+            startFrames = new int[size + 1];
+            quietFrames = new int[size + 1];
+            for(int i=0;i<size;i++) {
+                float amt = fftMaxes.getQuick(i);
+                float avg = fftAvg.getQuick(i) * averageMultiplier;
+                startFrames[i + 1] = startFrames[i] + (amt >= avg + aboveAvg ? 1 : 0);
+                quietFrames[i + 1] = quietFrames[i] + (amt < avg ? 1 : 0);
+            }
+        }
+
+        boolean isFor(TFloatArrayList fftMaxes, TFloatArrayList fftAvg, float aboveAvg, float averageMultiplier) {
+            return this.fftMaxes == fftMaxes && this.fftAvg == fftAvg &&
+                   this.aboveAvg == aboveAvg && this.averageMultiplier == averageMultiplier &&
+                   startFrames.length == fftMaxes.size() + 1;
+        }
+
+        // frames in [from, to] that could start a hold
+        int startFrames(int from, int to) {
+            return startFrames[to + 1] - startFrames[from];
+        }
+
+        // frames in [from, to] below the average
+        int quietFrames(int from, int to) {
+            return quietFrames[to + 1] - quietFrames[from];
+        }
+    }
+    
+    private SustainIndex getSustainIndex(SustainedFftConfig config) {
+        if( sustainIndex == null || !sustainIndex.isFor(config.fftMaxes, config.fftAvg, config.aboveAvg, config.averageMultiplier) ) {
+            sustainIndex = new SustainIndex(config.fftMaxes, config.fftAvg, config.aboveAvg, config.averageMultiplier);
+        }
+        return sustainIndex;
+    }
+    
     private boolean sustainedFft(SustainedFftConfig config) {
         int endIndex = (int)Math.floor((config.startTime + config.len) / config.timePerFft);
         if( endIndex >= config.fftMaxes.size() ) return false;
         int wiggleRoom = Math.round(0.1f * config.len / config.timePerFft);
         int startIndex = (int)Math.floor(config.startTime / config.timePerFft);
         int pastGranu = (int)Math.floor((config.startTime + config.granularity) / config.timePerFft);
-        boolean startThresholdReached = false;
-        for(int i=startIndex;i<=endIndex;i++) {
-            float amt = config.fftMaxes.getQuick(i);
-            float avg = config.fftAvg.getQuick(i) * config.averageMultiplier;
-            if( i <= pastGranu ) {
-                startThresholdReached |= amt >= avg + config.aboveAvg;
-            } else {
-                if( !startThresholdReached ) return false;
-                if( amt < avg ) {
-                    wiggleRoom--;
-                    if( wiggleRoom <= 0 ) return false;
-                }
-            }
-        }
-        return true;
+        // the whole window is within the first step, nothing left to sustain
+        if( pastGranu >= endIndex ) return true;
+        SustainIndex index = getSustainIndex(config);
+        // something in the first step has to be loud enough to start the hold
+        if( index.startFrames(startIndex, pastGranu) == 0 ) return false;
+        // and the rest may only dip below the average a few times
+        int quiet = index.quietFrames(pastGranu + 1, endIndex);
+        return quiet == 0 || quiet < wiggleRoom;
     }
     
     @SuppressWarnings("all")
@@ -316,8 +441,28 @@ public class StepGenerator {
     }
     
     public String generateNotes(NoteGenerationConfig config) {      
+        generate(config);
+        StringWriter notes = new StringWriter(allNoteLines.size() * 6 + commaSeperatorReset * 5);
+        try {
+            writeNotes(notes);
+        } catch (IOException e) {
+            // a StringWriter doesn't throw
+            throw new UncheckedIOException(e);
+        }
+        return notes.toString();
+    }
+    
+    /**
+     * Generates a chart and keeps it, two bytes a line, until {@link #writeNotes(Writer)}
+     * writes it out. Generating another chart replaces it.
+     */
+    void generate(NoteGenerationConfig config) {
         resetState(config.stepGranularity);
-        return generateNoteLines(config);
+        kickCursor = new OnsetCursor(config.fewTimes[AutoStepper.KICKS]);
+        snareCursor = new OnsetCursor(config.fewTimes[AutoStepper.SNARE]);
+        energyCursor = new OnsetCursor(config.fewTimes[AutoStepper.ENERGY]);
+        generateNoteLines(config);
+        logStatistics();
     }
     
     @SuppressWarnings("all")
@@ -340,19 +485,19 @@ public class StepGenerator {
         holding[2] = 0f;
         holding[3] = 0f;
         commaSeperatorReset = 4 * stepGranularity;
+        stats.clear();
     }
     
-    private String generateNoteLines(NoteGenerationConfig config) {
+    private void generateNoteLines(NoteGenerationConfig config) {
         int timeIndex = 0;
         float timeGranularity = config.timePerBeat / config.stepGranularity;
         for(float t = config.timeOffset; t <= config.totalTime; t += timeGranularity) {
             StepDecision decision = analyzeStepTiming(t, config, timeIndex);
+            Arrays.fill(stepArray, false);
             if( AutoStepper.isStepDebug() ) {
-                boolean[] debugSteps = new boolean[4];
-                debugSteps[0] = (timeIndex % 2 == 0);
-                makeNoteLine(getLastNoteLine(), t, debugSteps, -2, config.allowMines);
+                stepArray[0] = (timeIndex % 2 == 0);
+                makeNoteLine(getLastNoteLine(), t, stepArray, -2, config.allowMines);
             } else {
-                boolean[] stepArray = new boolean[4];
                 if( decision.steps > 0 ) {
                     stepArray[0] = true; // Place step on first arrow
                 }
@@ -360,18 +505,18 @@ public class StepGenerator {
             }
             timeIndex++;
         }
-        return formatOutput();
     }
     
     private StepDecision analyzeStepTiming(float t, NoteGenerationConfig config, int timeIndex) {
-        StepDecision decision = new StepDecision();
+        decision.steps = 0;
+        decision.holds = 0;
         if( t > 0f ) {
             float fftmax = getFft(t, config.fftMaxes, config.timePerFft);
             boolean sustained = sustainedFft(t, 0.75f, config.timePerBeat / config.stepGranularity, 
-                                           config.timePerFft, config.fftMaxes, config.fftAverages, 0.25f, 0.45f);
-            boolean nearKick = isNearATime(t, config.fewTimes[AutoStepper.KICKS], config.timePerBeat / config.stepGranularity);
-            boolean nearSnare = isNearATime(t, config.fewTimes[AutoStepper.SNARE], config.timePerBeat / config.stepGranularity);
-            boolean nearEnergy = isNearATime(t, config.fewTimes[AutoStepper.ENERGY], config.timePerBeat / config.stepGranularity);
+                                           config.timePerFft, config.fftMaxes, config.fftAverages, SUSTAIN_ABOVE_AVG, SUSTAIN_AVG_MULTIPLIER);
+            boolean nearKick = kickCursor.isNearATime(t, config.timePerBeat / config.stepGranularity);
+            boolean nearSnare = snareCursor.isNearATime(t, config.timePerBeat / config.stepGranularity);
+            boolean nearEnergy = energyCursor.isNearATime(t, config.timePerBeat / config.stepGranularity);
             
             decision.steps = sustained || nearKick || nearSnare || nearEnergy ? 1 : 0;
             if( sustained ) {
@@ -380,16 +525,15 @@ public class StepGenerator {
                 decision.holds = fftmax < 0.25f ? -2 : -1;
             }
             
-            decision = checkJumpConditions(decision, nearKick, nearSnare, nearEnergy, timeIndex);
-            decision = applySkipLogic(decision, config, timeIndex, t);
+            checkJumpConditions(decision, nearKick, nearSnare, nearEnergy, timeIndex);
+            applySkipLogic(decision, config, timeIndex, t);
         }
         return decision;
     }
     
     private StepDecision checkJumpConditions(StepDecision decision, boolean nearKick, boolean nearSnare, boolean nearEnergy, int timeIndex) {
-        String lastLine = getLastNoteLine();
         if( nearKick && (nearSnare || nearEnergy) && timeIndex % 2 == 0 &&
-            decision.steps > 0 && !lastLine.contains("1") && !lastLine.contains("2") && !lastLine.contains("3") ) {
+            decision.steps > 0 && !hasArrows(getLastNoteLine()) ) {
             decision.steps = 2;
         }
         return decision;
@@ -410,59 +554,45 @@ public class StepGenerator {
         int holds = 0;
     }
     
-    private String formatOutput() {
-        StringBuilder allNotes = new StringBuilder();
-        buildNoteLines(allNotes);
-        fillEmptyLines(allNotes);
-        String[] lines = allNotes.toString().split("\n");
-        NoteStatistics stats = calculateStatistics(lines);
-        logStatistics(stats);
-        return allNotes.toString();
-    }
-    
-    private void buildNoteLines(StringBuilder allNotes) {
-        commaSeperator = commaSeperatorReset;
+    /**
+     * Writes the generated chart's note lines a measure at a time, padded out to a
+     * whole last measure, without a line break after the last line.
+     */
+    void writeNotes(Writer out) throws IOException {
+        // five characters a line, plus the separator
+        char[] measure = new char[commaSeperatorReset * 5 + 2];
+        int length = 0;
+        int commaSeperator = commaSeperatorReset;
         for(int i=0;i<allNoteLines.size();i++) {
-            allNotes.append(getNoteLineIndex(i)).append("\n");
+            int row = allNoteLines.getQuick(i);
+            for(int lane=0;lane<4;lane++) measure[length++] = NOTE_CHARS.charAt(note(row, lane));
+            measure[length++] = '\n';
             commaSeperator--;
             if( commaSeperator == 0 ) {
-                allNotes.append(",\n");
+                measure[length++] = ',';
+                measure[length++] = '\n';
+                out.write(measure, 0, length);
+                length = 0;
                 commaSeperator = commaSeperatorReset;
             }
         }
-    }
-    
-    private void fillEmptyLines(StringBuilder allNotes) {
         while( commaSeperator > 0 ) {
-            allNotes.append("3333");
+            for(int lane=0;lane<4;lane++) measure[length++] = NOTE_CHARS.charAt(STOP);
             commaSeperator--;
-            if( commaSeperator > 0 ) allNotes.append("\n");
+            if( commaSeperator > 0 ) measure[length++] = '\n';
         }
+        out.write(measure, 0, length);
     }
     
-    private NoteStatistics calculateStatistics(String[] lines) {
-        NoteStatistics stats = new NoteStatistics();
-        for (String line : lines) {
-            int ones = line.length() - line.replace("1", "").length();
-            int twos = line.length() - line.replace("2", "").length();
-            if ((ones == 1 || twos == 1) && (ones + twos == 1)) stats.taps++;
-            else if ((ones == 2 || twos == 2) && (ones + twos == 2)) stats.jumps++;
-            else if (ones == 3) stats.hands++;
-            else if (ones >= 4) stats.quads++;
-        }
-        String allNotesStr = allNoteLines.toString();
-        stats.holdCount = allNotesStr.length() - allNotesStr.replace("2", "").length();
-        stats.mineCount = allNotesStr.length() - allNotesStr.replace("M", "").length();
-        return stats;
-    }
-    
-    private void logStatistics(NoteStatistics stats) {
+    private void logStatistics() {
         if (logger.isLoggable(java.util.logging.Level.INFO)) {
             logger.info(String.format("Taps: %d, Jumps: %d, Hands: %d, Quads: %d, Holds: %d, Mines: %d", 
                 stats.taps + stats.jumps, stats.jumps, stats.hands, stats.quads, stats.holdCount, stats.mineCount));
         }
     }
     
+    // counted line by line as the chart is made; the separator and padding
+    // lines have no taps or holds, so they don't need counting
     private static class NoteStatistics {
         int taps = 0;
         int jumps = 0;
@@ -470,6 +600,26 @@ public class StepGenerator {
         int quads = 0;
         int holdCount = 0;
         int mineCount = 0;
+
+        void add(int row) {
+            int ones = countNotes(row, TAP);
+            int twos = countNotes(row, HOLD);
+            if ((ones == 1 || twos == 1) && (ones + twos == 1)) taps++;
+            else if ((ones == 2 || twos == 2) && (ones + twos == 2)) jumps++;
+            else if (ones == 3) hands++;
+            else if (ones >= 4) quads++;
+            holdCount += twos;
+            mineCount += countNotes(row, MINE);
+        }
+
+        void clear() {
+            taps = 0;
+            jumps = 0;
+            hands = 0;
+            quads = 0;
+            holdCount = 0;
+            mineCount = 0;
+        }
     }
     
 }
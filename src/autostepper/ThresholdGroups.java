@@ -0,0 +1,142 @@
+package autostepper;
+
+import gnu.trove.list.array.TFloatArrayList;
+
+import java.util.Arrays;
+
+/**
+ * Groups values the way getMostCommon always has: in input order, each value joins
+ * the oldest group that already holds a value closer than the threshold, or starts
+ * a new group. Rather than scanning every member of every group for every value,
+ * the values are sorted once and a range-minimum tree over the sorted order answers
+ * "oldest group within the threshold" in O(log n), so grouping costs O(n log n).
+ */
+final class ThresholdGroups {
+
+    private static final int NO_GROUP = Integer.MAX_VALUE;
+
+    private final int[] sizes;
+    private final float[] sums;
+    private int count;
+
+    private ThresholdGroups(int capacity) {
+        sizes = new int[capacity];
+        sums = new float[capacity];
+    }
+
+    static ThresholdGroups of(TFloatArrayList values, float threshold) {
+        int n = values.size();
+        ThresholdGroups groups = new ThresholdGroups(n);
+        if (!(threshold > 0f)) {
+            // nothing is ever close enough, every value is its own group
+            for (int i = 0; i < n; i++) groups.add(groups.count++, values.getQuick(i));
+            return groups;
+        }
+
+        // sort the finite values, remembering where each input value ended up.
+        // NaN and infinite values are never within the threshold of anything.
+        long[] keys = new long[n];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            float v = values.getQuick(i);
+            if (Float.isFinite(v)) keys[m++] = ((long) sortableBits(v) << 32) | i;
+        }
+        Arrays.sort(keys, 0, m);
+        float[] sorted = new float[m];
+        int[] slot = new int[n];
+        Arrays.fill(slot, -1);
+        for (int k = 0; k < m; k++) {
+            int i = (int) keys[k];
+            sorted[k] = values.getQuick(i);
+            slot[i] = k;
+        }
+
+        // tree[size + k] holds the group of sorted[k] once it has been placed
+        int size = Math.max(1, Integer.highestOneBit(Math.max(1, m - 1)) << 1);
+        int[] tree = new int[2 * size];
+        Arrays.fill(tree, NO_GROUP);
+
+        for (int i = 0; i < n; i++) {
+            float v = values.getQuick(i);
+            int k = slot[i];
+            int group = NO_GROUP;
+            if (k >= 0) {
+                group = rangeMin(tree, size, lowerBound(sorted, v, threshold), upperBound(sorted, v, threshold));
+            }
+            if (group == NO_GROUP) group = groups.count++;
+            groups.add(group, v);
+            if (k >= 0) {
+                for (int p = size + k; p > 0 && tree[p] > group; p >>= 1) tree[p] = group;
+            }
+        }
+        return groups;
+    }
+
+    private void add(int group, float v) {
+        sizes[group]++;
+        sums[group] += v;
+    }
+
+    int count() {
+        return count;
+    }
+
+    int size(int group) {
+        return sizes[group];
+    }
+
+    float average(int group) {
+        return sums[group] / sizes[group];
+    }
+
+    /** The biggest group, ties going to the smaller average; -1 if there are no groups. */
+    int longest() {
+        int longest = -1;
+        for (int g = 0; g < count; g++) {
+            if (longest < 0 || sizes[g] > sizes[longest] ||
+                sizes[g] == sizes[longest] && average(g) < average(longest)) {
+                longest = g;
+            }
+        }
+        return longest;
+    }
+
+    // first index whose value is within the threshold of v (or above it)
+    private static int lowerBound(float[] sorted, float v, float threshold) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < v && !(Math.abs(sorted[mid] - v) < threshold)) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // last index whose value is within the threshold of v (or below it)
+    private static int upperBound(float[] sorted, float v, float threshold) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] > v && !(Math.abs(sorted[mid] - v) < threshold)) hi = mid;
+            else lo = mid + 1;
+        }
+        return lo - 1;
+    }
+
+    private static int rangeMin(int[] tree, int size, int from, int to) {
+        int min = NO_GROUP;
+        for (int l = from + size, r = to + size + 1; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) min = Math.min(min, tree[l++]);
+            if ((r & 1) == 1) min = Math.min(min, tree[--r]);
+        }
+        return min;
+    }
+
+    // an int with the same ordering as the float it came from
+    private static int sortableBits(float v) {
+        int bits = Float.floatToIntBits(v);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+}
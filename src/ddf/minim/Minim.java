@@ -28,6 +28,7 @@ import javax.sound.sampled.Mixer;
 
 
 import ddf.minim.javasound.JSMinim;
+import ddf.minim.spi.AudioDecoder;
 import ddf.minim.spi.AudioOut;
 import ddf.minim.spi.AudioRecording;
 import ddf.minim.spi.AudioRecordingStream;
@@ -599,6 +600,25 @@ public class Minim
 		return stream;
 	}
 	
+	/**
+	 * Opens the file for offline decoding. The returned AudioDecoder fills 
+	 * buffers that you provide and does nothing in the background: there is 
+	 * no output line, no IO thread and no need to call <code>play()</code>. 
+	 * Use this instead of <code>loadFileStream</code> when you only want to 
+	 * analyze a file. Minim does not keep track of decoders, so remember to 
+	 * call <code>close()</code> when you are done with it.
+	 * 
+	 * @shortdesc Opens the file for offline decoding.
+	 * 
+	 * @param filename
+	 *            the file to decode
+	 * @return an AudioDecoder that reads from the file, or null if it could not be opened
+	 */
+	public AudioDecoder loadFileDecoder(String filename)
+	{
+		return mimp.getAudioDecoder( filename );
+	}
+	
 	/**
 	 * Load the file into an AudioRecordingStream with a buffer size of 1024 
 	 * samples.
@@ -18,6 +18,8 @@
 
 package ddf.minim.analysis;
 
+import java.util.ArrayList;
+
 import ddf.minim.AudioBuffer;
 import ddf.minim.Minim;
 
@@ -92,20 +94,17 @@ public class BeatDetect
 	private int					timeSize;
 	private int					valCnt;
 	private float[]			valGraph;
-	private double					sensitivity;
-	// for circular buffer support
-	private int					insertAt;
+	// the sensitivity set with setSensitivity() followed by any added with addSensitivity().
+	// they all share the energy history below, only their onset timers differ.
+	private ArrayList<Sensitivity>	sensitivities;
+	private Sensitivity			primary;
 	// vars for sEnergy
-	private boolean			isOnset;
-	private float[]			eBuffer;
-	private float[]			dBuffer;
-	private double				lastTrueTime;
+	private EnergyHistory		eBuffer;
+	private EnergyHistory		dBuffer;
 	// vars for fEnergy
-	private boolean[]			fIsOnset;
 	private FFT					spect;
-	private float[][]			feBuffer;
-	private float[][]			fdBuffer;
-	private double[]				fTimer;
+	private EnergyHistory[]	feBuffer;
+	private EnergyHistory[]	fdBuffer;
 	private float[]			varGraph;
 	private int					varCnt;
 
@@ -119,6 +118,9 @@ public class BeatDetect
 	public BeatDetect(int algo, int timeSize, float sampleRate) {
             this.sampleRate = (int)sampleRate;
             this.timeSize = timeSize;
+            sensitivities = new ArrayList<Sensitivity>();
+            primary = new Sensitivity(0.3);
+            sensitivities.add(primary);
             if( algo == SOUND_ENERGY ) {
 		initSEResources();
 		algorithm = SOUND_ENERGY;
@@ -127,7 +129,6 @@ public class BeatDetect
 		algorithm = FREQ_ENERGY;                
             }
             initGraphs();
-            sensitivity = 0.3;
 	}
 
 	/**
@@ -178,11 +179,12 @@ public class BeatDetect
 
 	private void initSEResources()
 	{
-		isOnset = false;
-		eBuffer = new float[sampleRate / timeSize];
-		dBuffer = new float[sampleRate / timeSize];
-		lastTrueTime = 0; //System.currentTimeMillis();
-		insertAt = 0;
+		eBuffer = new EnergyHistory(sampleRate / timeSize);
+		dBuffer = new EnergyHistory(sampleRate / timeSize);
+		for (Sensitivity s : sensitivities)
+		{
+			s.initSE();
+		}
 	}
 
 	private void initFEResources()
@@ -190,33 +192,38 @@ public class BeatDetect
 		spect = new FFT(timeSize, sampleRate);
 		spect.logAverages(60, 3);
 		int numAvg = spect.avgSize();
-		fIsOnset = new boolean[numAvg];
-		feBuffer = new float[numAvg][sampleRate / timeSize];
-		fdBuffer = new float[numAvg][sampleRate / timeSize];
-		fTimer = new double[numAvg];
-		double start = 0.0;
-		for (int i = 0; i < fTimer.length; i++)
+		feBuffer = new EnergyHistory[numAvg];
+		fdBuffer = new EnergyHistory[numAvg];
+		for (int i = 0; i < numAvg; i++)
+		{
+			feBuffer[i] = new EnergyHistory(sampleRate / timeSize);
+			fdBuffer[i] = new EnergyHistory(sampleRate / timeSize);
+		}
+		for (Sensitivity s : sensitivities)
 		{
-			fTimer[i] = start;
+			s.initFE(numAvg);
 		}
-		insertAt = 0;
 	}
 
 	private void releaseSEResources()
 	{
-		isOnset = false;
 		eBuffer = null;
 		dBuffer = null;
-		lastTrueTime = 0;
+		for (Sensitivity s : sensitivities)
+		{
+			s.initSE();
+		}
 	}
 
 	private void releaseFEResources()
 	{
 		spect = null;
-		fIsOnset = null;
 		feBuffer = null;
 		fdBuffer = null;
-		fTimer = null;
+		for (Sensitivity s : sensitivities)
+		{
+			s.releaseFE();
+		}
 	}
 
 	/**
@@ -310,6 +317,47 @@ public class BeatDetect
 	  return 0;
 	}
 
+	/**
+	 * In frequency energy mode this returns the number of bands in the spectrum
+	 * analyzed by <code>detect()</code>. In sound energy mode this always returns 0.
+	 * 
+	 * @return int: the size of the spectrum
+	 * 
+	 * @related BeatDetect
+	 */
+	public int specSize()
+	{
+		if ( algorithm == FREQ_ENERGY )
+		{
+			return spect.specSize();
+		}
+
+		return 0;
+	}
+
+	/**
+	 * In frequency energy mode this returns the amplitude of the i<sup>th</sup> band 
+	 * of the spectrum analyzed by the most recent call to <code>detect()</code>, so 
+	 * other analysis can reuse it instead of transforming the same samples again.
+	 * In sound energy mode this always returns 0.
+	 * 
+	 * @param i
+	 *     int: the index of the band
+	 *     
+	 * @return float: the amplitude of the i<sup>th</sup> band
+	 * 
+	 * @related BeatDetect
+	 */
+	public float getBand(int i)
+	{
+		if ( algorithm == FREQ_ENERGY )
+		{
+			return spect.getBand(i);
+		}
+
+		return 0;
+	}
+
 	/**
 	 * Sets the sensitivity of the algorithm. After a beat has been detected, the
 	 * algorithm will wait for <code>millis</code> milliseconds before allowing
@@ -327,15 +375,32 @@ public class BeatDetect
 	 */
 	public void setSensitivity(double sec)
 	{
-		if (sec < 0)
-		{
-			Minim.error("BeatDetect: sensitivity cannot be less than zero. Defaulting to 10.");
-			sensitivity = 0.3;
-		}
-		else
+		primary.setSensitivity(sec);
+	}
+	
+	/**
+	 * Adds another sensitivity that is evaluated on every call to <code>detect()</code>.
+	 * The spectrum and energy history are computed once per call and shared by all
+	 * sensitivities, so querying several sensitivities this way is much cheaper than
+	 * running several BeatDetect objects over the same samples. The returned object
+	 * answers the same questions as <code>isOnset()</code>, <code>isKick()</code> and 
+	 * friends, but for its own sensitivity.
+	 * 
+	 * @param sec
+	 *           double: the sensitivity in seconds
+	 * @return Sensitivity: the object to query for beats detected with this sensitivity
+	 * 
+	 * @related BeatDetect
+	 */
+	public Sensitivity addSensitivity(double sec)
+	{
+		Sensitivity s = new Sensitivity(sec);
+		if (algorithm == FREQ_ENERGY)
 		{
-			sensitivity = sec;
+			s.initFE(spect.avgSize());
 		}
+		sensitivities.add(s);
+		return s;
 	}
 	
 	/**
@@ -350,7 +415,7 @@ public class BeatDetect
 	 */
 	public boolean isOnset()
 	{
-		return isOnset;
+		return primary.isOnset();
 	}
 
 	/**
@@ -368,11 +433,7 @@ public class BeatDetect
 	 */
 	public boolean isOnset(int i)
 	{
-		if (algorithm == SOUND_ENERGY)
-		{
-			return false;
-		}
-		return fIsOnset[i];
+		return primary.isOnset(i);
 	}
 
 	/**
@@ -389,12 +450,7 @@ public class BeatDetect
 	 */
 	public boolean isKick()
 	{
-		if (algorithm == SOUND_ENERGY)
-		{
-			return false;
-		}
-		int upper = 6 >= spect.avgSize() ? spect.avgSize() : 6;
-		return isRange(1, upper, 2);
+		return primary.isKick();
 	}
 
 	/**
@@ -411,14 +467,7 @@ public class BeatDetect
 	 */
 	public boolean isSnare()
 	{
-		if (algorithm == SOUND_ENERGY)
-		{
-			return false;
-		}
-		int lower = 8 >= spect.avgSize() ? spect.avgSize() : 8;
-		int upper = spect.avgSize() - 1;
-		int thresh = (upper - lower) / 3 + 1;
-		return isRange(lower, upper, thresh);
+		return primary.isSnare();
 	}
 
 	/**
@@ -435,13 +484,7 @@ public class BeatDetect
 	 */
 	public boolean isHat()
 	{
-		if (algorithm == SOUND_ENERGY)
-		{
-			return false;
-		}
-		int lower = spect.avgSize() - 7 < 0 ? 0 : spect.avgSize() - 7;
-		int upper = spect.avgSize() - 1;
-		return isRange(lower, upper, 1);
+		return primary.isHat();
 	}
 
 	/**
@@ -466,19 +509,7 @@ public class BeatDetect
 	 */
 	public boolean isRange(int low, int high, int threshold)
 	{
-		if (algorithm == SOUND_ENERGY)
-		{
-			return false;
-		}
-		int num = 0;
-		for (int i = low; i < high + 1; i++)
-		{
-			if (isOnset(i))
-			{
-				num++;
-			}
-		}
-		return num >= threshold;
+		return primary.isRange(low, high, threshold);
 	}
 
 	/**
@@ -537,42 +568,26 @@ public class BeatDetect
 		level = (float) Math.sqrt(level);
 		float instant = level * 100;
 		// compute the average local energy
-		float E = average(eBuffer);
+		float E = eBuffer.average();
 		// compute the variance of the energies in eBuffer
-		float V = variance(eBuffer, E);
+		float V = eBuffer.variance(E);
 		// compute C using a linear digression of C with V
 		float C = (-0.0025714f * V) + 1.5142857f;
 		// filter negaive values
 		float diff = (float)Math.max(instant - C * E, 0);
 		pushVal(diff);
 		// find the average of only the positive values in dBuffer
-		float dAvg = specAverage(dBuffer);
+		float dAvg = dBuffer.positiveAverage();
 		// filter negative values
 		float diff2 = (float)Math.max(diff - dAvg, 0);
 		pushVar(diff2);
-		// report false if it's been less than 'sensitivity'
-		// milliseconds since the last true value
-		if (time - lastTrueTime < sensitivity)
-		{
-			isOnset = false;
-		}
-		// if we've made it this far then we're allowed to set a new
-		// value, so set it true if it deserves to be, restart the timer
-		else if (diff2 > 0 && instant > 2)
+		boolean beat = diff2 > 0 && instant > 2;
+		for (int s = 0; s < sensitivities.size(); s++)
 		{
-			isOnset = true;
-			lastTrueTime = time;
+			sensitivities.get(s).updateSE(beat, time);
 		}
-		// OMG it wasn't true!
-		else
-		{
-			isOnset = false;
-		}
-		eBuffer[insertAt] = instant;
-		dBuffer[insertAt] = diff;
-		insertAt++;
-		if (insertAt == eBuffer.length)
-			insertAt = 0;
+		eBuffer.push(instant);
+		dBuffer.push(diff);
 	}
 
 	private void fEnergy(float[] in, double time)
@@ -582,42 +597,29 @@ public class BeatDetect
 		for (int i = 0; i < feBuffer.length; i++)
 		{
 			instant = spect.getAvg(i);
-			E = average(feBuffer[i]);
-			V = variance(feBuffer[i], E);
+			E = feBuffer[i].average();
+			V = feBuffer[i].variance(E);
 			C = (-0.0025714f * V) + 1.5142857f;
 			diff = (float)Math.max(instant - C * E, 0);
-			dAvg = specAverage(fdBuffer[i]);
+			dAvg = fdBuffer[i].positiveAverage();
 			diff2 = (float)Math.max(diff - dAvg, 0);
-			if (time - fTimer[i] < sensitivity)
-			{
-				fIsOnset[i] = false;
-			}
-			else if (diff2 > 0)
-			{
-				fIsOnset[i] = true;
-				fTimer[i] = time;
-			}
-			else
+			for (int s = 0; s < sensitivities.size(); s++)
 			{
-				fIsOnset[i] = false;
+				sensitivities.get(s).updateFE(i, diff2 > 0, time);
 			}
-			feBuffer[i][insertAt] = instant;
-			fdBuffer[i][insertAt] = diff;
-		}
-		insertAt++;
-		if (insertAt == feBuffer[0].length)
-		{
-			insertAt = 0;
+			feBuffer[i].push(instant);
+			fdBuffer[i].push(diff);
 		}
 	}
 
+	// the graphs only ever show their first valCnt / varCnt entries, so when
+	// they fill up we start writing from the front again instead of
+	// allocating fresh ones
 	private void pushVal(float v)
 	{
-		// println(valCnt);
 		if (valCnt == valGraph.length)
 		{
 			valCnt = 0;
-			valGraph = new float[valGraph.length];
 		}
 		valGraph[valCnt] = v;
 		valCnt++;
@@ -625,54 +627,180 @@ public class BeatDetect
 
 	private void pushVar(float v)
 	{
-		// println(valCnt);
 		if (varCnt == varGraph.length)
 		{
 			varCnt = 0;
-			varGraph = new float[varGraph.length];
 		}
 		varGraph[varCnt] = v;
 		varCnt++;
 	}
 
-	private float average(float[] arr)
+	/**
+	 * One sensitivity of a BeatDetect. Every Sensitivity of a BeatDetect is updated
+	 * by the same call to <code>detect()</code> and only differs in how long it
+	 * waits after a beat before it will report another one.
+	 * 
+	 * @related BeatDetect
+	 */
+	public class Sensitivity
 	{
-		float avg = 0;
-		for (int i = 0; i < arr.length; i++)
+		private double		sensitivity;
+		// sound energy
+		private boolean		isOnset;
+		private double		lastTrueTime;
+		// frequency energy
+		private boolean[]	fIsOnset;
+		private double[]	fTimer;
+		
+		private Sensitivity(double sec)
 		{
-			avg += arr[i];
+			setSensitivity(sec);
 		}
-		avg /= arr.length;
-		return avg;
-	}
-
-	private float specAverage(float[] arr)
-	{
-		float avg = 0;
-		float num = 0;
-		for (int i = 0; i < arr.length; i++)
+		
+		private void initSE()
+		{
+			isOnset = false;
+			lastTrueTime = 0;
+		}
+		
+		private void initFE(int numAvg)
+		{
+			fIsOnset = new boolean[numAvg];
+			fTimer = new double[numAvg];
+		}
+		
+		private void releaseFE()
 		{
-			if (arr[i] > 0)
+			fIsOnset = null;
+			fTimer = null;
+		}
+		
+		private void updateSE(boolean beat, double time)
+		{
+			// report false if it's been less than 'sensitivity'
+			// seconds since the last true value
+			if (time - lastTrueTime < sensitivity)
+			{
+				isOnset = false;
+			}
+			// if we've made it this far then we're allowed to set a new
+			// value, so set it true if it deserves to be, restart the timer
+			else if (beat)
+			{
+				isOnset = true;
+				lastTrueTime = time;
+			}
+			// OMG it wasn't true!
+			else
 			{
-				avg += arr[i];
-				num++;
+				isOnset = false;
 			}
 		}
-		if (num > 0)
+		
+		private void updateFE(int i, boolean beat, double time)
 		{
-			avg /= num;
+			if (time - fTimer[i] < sensitivity)
+			{
+				fIsOnset[i] = false;
+			}
+			else if (beat)
+			{
+				fIsOnset[i] = true;
+				fTimer[i] = time;
+			}
+			else
+			{
+				fIsOnset[i] = false;
+			}
 		}
-		return avg;
-	}
-
-	private float variance(float[] arr, float val)
-	{
-		float V = 0;
-		for (int i = 0; i < arr.length; i++)
+		
+		/**
+		 * Sets the number of seconds to wait after a beat before reporting another one.
+		 * 
+		 * @param sec
+		 *           double: the sensitivity in seconds
+		 */
+		public void setSensitivity(double sec)
+		{
+			if (sec < 0)
+			{
+				Minim.error("BeatDetect: sensitivity cannot be less than zero. Defaulting to 10.");
+				sensitivity = 0.3;
+			}
+			else
+			{
+				sensitivity = sec;
+			}
+		}
+		
+		/** @see BeatDetect#isOnset() */
+		public boolean isOnset()
 		{
-			V += (float)Math.pow(arr[i] - val, 2);
+			return isOnset;
+		}
+		
+		/** @see BeatDetect#isOnset(int) */
+		public boolean isOnset(int i)
+		{
+			if (algorithm == SOUND_ENERGY)
+			{
+				return false;
+			}
+			return fIsOnset[i];
+		}
+		
+		/** @see BeatDetect#isKick() */
+		public boolean isKick()
+		{
+			if (algorithm == SOUND_ENERGY)
+			{
+				return false;
+			}
+			int upper = 6 >= spect.avgSize() ? spect.avgSize() : 6;
+			return isRange(1, upper, 2);
+		}
+		
+		/** @see BeatDetect#isSnare() */
+		public boolean isSnare()
+		{
+			if (algorithm == SOUND_ENERGY)
+			{
+				return false;
+			}
+			int lower = 8 >= spect.avgSize() ? spect.avgSize() : 8;
+			int upper = spect.avgSize() - 1;
+			int thresh = (upper - lower) / 3 + 1;
+			return isRange(lower, upper, thresh);
+		}
+		
+		/** @see BeatDetect#isHat() */
+		public boolean isHat()
+		{
+			if (algorithm == SOUND_ENERGY)
+			{
+				return false;
+			}
+			int lower = spect.avgSize() - 7 < 0 ? 0 : spect.avgSize() - 7;
+			int upper = spect.avgSize() - 1;
+			return isRange(lower, upper, 1);
+		}
+		
+		/** @see BeatDetect#isRange(int, int, int) */
+		public boolean isRange(int low, int high, int threshold)
+		{
+			if (algorithm == SOUND_ENERGY)
+			{
+				return false;
+			}
+			int num = 0;
+			for (int i = low; i < high + 1; i++)
+			{
+				if (isOnset(i))
+				{
+					num++;
+				}
+			}
+			return num >= threshold;
 		}
-		V /= arr.length;
-		return V;
 	}
 }
@@ -0,0 +1,100 @@
+package ddf.minim.analysis;
+
+/**
+ * A fixed length ring buffer of energy values that keeps its sum, sum of
+ * squares and the sum and count of its positive entries up to date as values
+ * are replaced, so that BeatDetect can ask for the average, the variance and
+ * the average of the positive values in constant time instead of walking the
+ * whole history for every band on every buffer.
+ * <p>
+ * The running sums are kept in doubles and recomputed from the stored values
+ * each time the buffer wraps, so rounding error can't build up over a long
+ * song.
+ */
+final class EnergyHistory
+{
+	private final float[]	values;
+	private int				insertAt;
+	private double			sum;
+	private double			sumSquares;
+	private double			positiveSum;
+	private int				positiveCount;
+
+	EnergyHistory(int length)
+	{
+		values = new float[length];
+	}
+
+	/**
+	 * Replaces the oldest value in the history with <code>v</code>.
+	 */
+	void push(float v)
+	{
+		float old = values[insertAt];
+		values[insertAt] = v;
+		insertAt++;
+		if (insertAt == values.length)
+		{
+			insertAt = 0;
+			recompute();
+			return;
+		}
+		sum += v - old;
+		sumSquares += (double)v * v - (double)old * old;
+		if (old > 0)
+		{
+			positiveSum -= old;
+			positiveCount--;
+		}
+		if (v > 0)
+		{
+			positiveSum += v;
+			positiveCount++;
+		}
+	}
+
+	/**
+	 * The mean of every value in the history, including the zeros it starts out with.
+	 */
+	float average()
+	{
+		return (float)(sum / values.length);
+	}
+
+	/**
+	 * The population variance of the history around <code>mean</code>.
+	 */
+	float variance(float mean)
+	{
+		// sum((x - m)^2) = sumSquares - 2 m sum + n m^2
+		double V = sumSquares - 2.0 * mean * sum + (double)values.length * mean * mean;
+		return (float)Math.max(V / values.length, 0);
+	}
+
+	/**
+	 * The mean of only the positive values in the history, or 0 if there are none.
+	 */
+	float positiveAverage()
+	{
+		return positiveCount > 0 ? (float)(positiveSum / positiveCount) : 0;
+	}
+
+	private void recompute()
+	{
+		sum = 0;
+		sumSquares = 0;
+		positiveSum = 0;
+		positiveCount = 0;
+		for (int i = 0; i < values.length; i++)
+		{
+			float v = values[i];
+			sum += v;
+			sumSquares += (double)v * v;
+			if (v > 0)
+			{
+				positiveSum += v;
+				positiveCount++;
+			}
+		}
+	}
+}
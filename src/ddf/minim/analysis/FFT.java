@@ -168,8 +168,11 @@ public class FFT extends FourierTransform
     {
       throw new IllegalArgumentException("FFT: timeSize must be a power of two.");
     }
-    buildReverseTable();
-    buildTrigTables();
+    // the tables are shared with every other FFT of this size
+    plan = FFTPlan.forSize(timeSize);
+    reverse = plan.reverse;
+    realSin = plan.realSin;
+    realCos = plan.realCos;
   }
 
   protected void allocateArrays()
@@ -229,34 +232,15 @@ public class FFT extends FourierTransform
   // bit reversing is not necessary as the data will already be bit reversed
   private void fft()
   {
-    for (int halfSize = 1; halfSize < real.length; halfSize *= 2)
+    fft(real.length);
+  }
+
+  // same as fft(), but only transforms the first n entries of real and imag
+  private void fft(int n)
+  {
+    for (int halfSize = 1; halfSize < n; halfSize *= 2)
     {
-      // float k = -(float)Math.PI/halfSize;
-      // phase shift step
-      // float phaseShiftStepR = (float)Math.cos(k);
-      // float phaseShiftStepI = (float)Math.sin(k);
-      // using lookup table
-      float phaseShiftStepR = cos(halfSize);
-      float phaseShiftStepI = sin(halfSize);
-      // current phase shift
-      float currentPhaseShiftR = 1.0f;
-      float currentPhaseShiftI = 0.0f;
-      for (int fftStep = 0; fftStep < halfSize; fftStep++)
-      {
-        for (int i = fftStep; i < real.length; i += 2 * halfSize)
-        {
-          int off = i + halfSize;
-          float tr = (currentPhaseShiftR * real[off]) - (currentPhaseShiftI * imag[off]);
-          float ti = (currentPhaseShiftR * imag[off]) + (currentPhaseShiftI * real[off]);
-          real[off] = real[i] - tr;
-          imag[off] = imag[i] - ti;
-          real[i] += tr;
-          imag[i] += ti;
-        }
-        float tmpR = currentPhaseShiftR;
-        currentPhaseShiftR = (tmpR * phaseShiftStepR) - (currentPhaseShiftI * phaseShiftStepI);
-        currentPhaseShiftI = (tmpR * phaseShiftStepI) + (currentPhaseShiftI * phaseShiftStepR);
-      }
+      FFTKernels.INSTANCE.butterflies(real, imag, n, halfSize, plan);
     }
   }
 
@@ -269,10 +253,8 @@ public class FFT extends FourierTransform
       return;
     }
     doWindow(buffer);
-    // copy samples to real/imag in bit-reversed order
-    bitReverseSamples(buffer, 0);
     // perform the fft
-    fft();
+    realForward(buffer, 0);
     // fill the spectrum buffer with amplitudes
     fillSpectrum();
   }
@@ -289,8 +271,7 @@ public class FFT extends FourierTransform
 	  }
 	  
 	  currentWindow.apply( buffer, startAt, timeSize );
-	  bitReverseSamples(buffer, startAt);
-	  fft();
+	  realForward(buffer, startAt);
 	  fillSpectrum();
   }
 
@@ -336,19 +317,8 @@ public class FFT extends FourierTransform
     }
   }
 
-  private int[] reverse;
-
-  private void buildReverseTable()
-  {
-    int N = timeSize;
-    reverse = new int[N];
-
-    // set up the bit reversing table
-    reverse[0] = 0;
-    for (int limit = 1, bit = N / 2; limit < N; limit <<= 1, bit >>= 1)
-      for (int i = 0; i < limit; i++)
-        reverse[i + limit] = reverse[i] + bit;
-  }
+  private final FFTPlan plan;
+  private final int[] reverse;
 
   // copies the values in the samples array into the real array
   // in bit reversed order. the imag array is filled with zeros.
@@ -361,44 +331,92 @@ public class FFT extends FourierTransform
     }
   }
 
-  // bit reverse real[] and imag[]
-  private void bitReverseComplex()
+  // transforms timeSize real samples, leaving the full spectrum in real[] and imag[].
+  // the even samples are packed into the real part and the odd samples into the
+  // imaginary part of a timeSize/2 point complex signal, which is transformed and
+  // then split back into the spectrum of the original signal. that's half the
+  // butterflies of transforming the samples with a zero imaginary part.
+  private void realForward(float[] samples, int startAt)
   {
-    float[] revReal = new float[real.length];
-    float[] revImag = new float[imag.length];
-    for (int i = 0; i < real.length; i++)
+    int N = timeSize;
+    if (N < 4)
     {
-      revReal[i] = real[reverse[i]];
-      revImag[i] = imag[reverse[i]];
+      bitReverseSamples(samples, startAt);
+      fft();
+      return;
+    }
+    int M = N / 2;
+    // pack in bit-reversed order. reversing the bits of 2i for N points
+    // is the same as reversing the bits of i for N/2 points.
+    for (int i = 0; i < M; ++i)
+    {
+      int j = startAt + 2 * reverse[2 * i];
+      real[i] = samples[j];
+      imag[i] = samples[j + 1];
+    }
+    fft(M);
+    // unpack. Z[k] and Z[M-k] give both X[k] and X[M-k], so do them in pairs
+    float z0r = real[0];
+    float z0i = imag[0];
+    real[0] = z0r + z0i;
+    imag[0] = 0;
+    real[M] = z0r - z0i;
+    imag[M] = 0;
+    for (int k = 1; k <= M / 2; ++k)
+    {
+      int mk = M - k;
+      float ar = real[k];
+      float ai = imag[k];
+      float br = real[mk];
+      float bi = imag[mk];
+      // even part: (Z[k] + conj(Z[M-k])) / 2
+      float er = 0.5f * (ar + br);
+      float ei = 0.5f * (ai - bi);
+      // odd part: (Z[k] - conj(Z[M-k])) / 2i
+      float or = 0.5f * (ai + bi);
+      float oi = -0.5f * (ar - br);
+      // twiddle by e^(-2 pi i k / N)
+      float wr = realCos[k];
+      float wi = -realSin[k];
+      float tr = wr * or - wi * oi;
+      float ti = wr * oi + wi * or;
+      real[k] = er + tr;
+      imag[k] = ei + ti;
+      // X[M-k] = conj(even - twiddled odd)
+      real[mk] = er - tr;
+      imag[mk] = ti - ei;
+    }
+    // the upper half is the complex conjugate of the lower half
+    for (int k = 1; k < M; ++k)
+    {
+      real[N - k] = real[k];
+      imag[N - k] = -imag[k];
     }
-    real = revReal;
-    imag = revImag;
-  }
-
-  // lookup tables
-
-  private float[] sinlookup;
-  private float[] coslookup;
-
-  private float sin(int i)
-  {
-    return sinlookup[i];
-  }
-
-  private float cos(int i)
-  {
-    return coslookup[i];
   }
 
-  private void buildTrigTables()
+  // bit reverse real[] and imag[] in place. bit reversal is its own inverse,
+  // so swapping each pair once is the whole permutation.
+  private void bitReverseComplex()
   {
-    int N = timeSize;
-    sinlookup = new float[N];
-    coslookup = new float[N];
-    for (int i = 0; i < N; i++)
+    for (int i = 0; i < real.length; i++)
     {
-      sinlookup[i] = (float) Math.sin(-(float) Math.PI / i);
-      coslookup[i] = (float) Math.cos(-(float) Math.PI / i);
+      int j = reverse[i];
+      if (i < j)
+      {
+        float tr = real[i];
+        real[i] = real[j];
+        real[j] = tr;
+        float ti = imag[i];
+        imag[i] = imag[j];
+        imag[j] = ti;
+      }
     }
   }
+
+  // lookup tables
+
+  // from the FFTPlan for timeSize, never written
+  // sin and cos of 2 pi k / timeSize for unpacking real transforms
+  private final float[] realSin;
+  private final float[] realCos;
 }
@@ -0,0 +1,132 @@
+/*
+ *  Copyright (c) 2007 - 2008 by Damien Di Fede <ddf@compartmental.net>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package ddf.minim.analysis;
+
+import ddf.minim.Minim;
+
+/**
+ * The inner loops of the Fourier transforms: the butterflies of an FFT stage,
+ * the magnitude of each band and the linear averages. This class does them one
+ * float at a time. When the JVM has been started with
+ * <code>--add-modules jdk.incubator.vector</code>, {@link #INSTANCE} is a
+ * {@link VectorFFTKernels} instead, which does them several floats at a time
+ * and gets exactly the same results. Setting the system property
+ * <code>minim.fft.backend</code> to <code>scalar</code> turns that off.
+ */
+class FFTKernels
+{
+  static final FFTKernels INSTANCE = select();
+
+  private static FFTKernels select()
+  {
+    if ("scalar".equals(System.getProperty("minim.fft.backend"))
+        || !ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+    {
+      return new FFTKernels();
+    }
+    // loaded by name, so nothing refers to the incubator classes unless the module is there
+    try
+    {
+      FFTKernels kernels = (FFTKernels) Class.forName("ddf.minim.analysis.VectorFFTKernels")
+          .getDeclaredConstructor().newInstance();
+      Minim.debug("FFT: using the Vector API, " + kernels.name());
+      return kernels;
+    }
+    catch (ReflectiveOperationException | LinkageError e)
+    {
+      Minim.debug("FFT: the Vector API is not usable, " + e);
+      return new FFTKernels();
+    }
+  }
+
+  String name()
+  {
+    return "scalar";
+  }
+
+  // one radix-2 stage of an in-place fft on the first n entries of real and imag
+  void butterflies(float[] real, float[] imag, int n, int halfSize, FFTPlan plan)
+  {
+    // float k = -(float)Math.PI/halfSize;
+    // phase shift step
+    // float phaseShiftStepR = (float)Math.cos(k);
+    // float phaseShiftStepI = (float)Math.sin(k);
+    // using lookup table
+    float phaseShiftStepR = plan.coslookup[halfSize];
+    float phaseShiftStepI = plan.sinlookup[halfSize];
+    // current phase shift
+    float currentPhaseShiftR = 1.0f;
+    float currentPhaseShiftI = 0.0f;
+    for (int fftStep = 0; fftStep < halfSize; fftStep++)
+    {
+      for (int i = fftStep; i < n; i += 2 * halfSize)
+      {
+        int off = i + halfSize;
+        float tr = (currentPhaseShiftR * real[off]) - (currentPhaseShiftI * imag[off]);
+        float ti = (currentPhaseShiftR * imag[off]) + (currentPhaseShiftI * real[off]);
+        real[off] = real[i] - tr;
+        imag[off] = imag[i] - ti;
+        real[i] += tr;
+        imag[i] += ti;
+      }
+      float tmpR = currentPhaseShiftR;
+      currentPhaseShiftR = (tmpR * phaseShiftStepR) - (currentPhaseShiftI * phaseShiftStepI);
+      currentPhaseShiftI = (tmpR * phaseShiftStepI) + (currentPhaseShiftI * phaseShiftStepR);
+    }
+  }
+
+  // fills spectrum with the amplitudes of the data in real and imag
+  void magnitudes(float[] real, float[] imag, float[] spectrum)
+  {
+    for (int i = 0; i < spectrum.length; i++)
+    {
+      spectrum[i] = (float) Math.sqrt(real[i] * real[i] + imag[i] * imag[i]);
+    }
+  }
+
+  // fills averages with the mean of equally wide groups of bands
+  void linearAverages(float[] spectrum, float[] averages)
+  {
+    int avgWidth = spectrum.length / averages.length;
+    for (int i = 0; i < averages.length; i++)
+    {
+      averages[i] = linearAverage(spectrum, avgWidth, i);
+    }
+  }
+
+  static float linearAverage(float[] spectrum, int avgWidth, int band)
+  {
+    float avg = 0;
+    int j;
+    for (j = 0; j < avgWidth; j++)
+    {
+      int offset = j + band * avgWidth;
+      if (offset < spectrum.length)
+      {
+        avg += spectrum[offset];
+      }
+      else
+      {
+        break;
+      }
+    }
+    avg /= j + 1;
+    return avg;
+  }
+}
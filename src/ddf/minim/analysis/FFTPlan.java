@@ -0,0 +1,101 @@
+/*
+ *  Copyright (c) 2007 - 2008 by Damien Di Fede <ddf@compartmental.net>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package ddf.minim.analysis;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The bit reversal and twiddle tables for an FFT of one size. A plan never
+ * changes after it has been built, so every FFT of that size, on any thread,
+ * uses the same one from {@link #forSize(int)}. The arrays an FFT transforms
+ * in are its own and are not part of the plan.
+ */
+final class FFTPlan
+{
+  private static final ConcurrentHashMap<Integer, FFTPlan> plans = new ConcurrentHashMap<Integer, FFTPlan>();
+
+  final int size;
+  // index i holds i with its bits reversed
+  final int[] reverse;
+  // sin and cos of -pi / i, the twiddle step of a butterfly stage of half size i
+  final float[] sinlookup;
+  final float[] coslookup;
+  // sin and cos of 2 pi k / size for unpacking real transforms
+  final float[] realSin;
+  final float[] realCos;
+  // the phase shift of each butterfly of the stage of half size h is at
+  // h + step, for steps 0 to h - 1. they are stepped through exactly as a
+  // stage does it, so a stage that looks them up gets the same numbers.
+  final float[] twiddleReal;
+  final float[] twiddleImag;
+
+  private FFTPlan(int size)
+  {
+    this.size = size;
+
+    reverse = new int[size];
+    reverse[0] = 0;
+    for (int limit = 1, bit = size / 2; limit < size; limit <<= 1, bit >>= 1)
+      for (int i = 0; i < limit; i++)
+        reverse[i + limit] = reverse[i] + bit;
+
+    sinlookup = new float[size];
+    coslookup = new float[size];
+    for (int i = 0; i < size; i++)
+    {
+      sinlookup[i] = (float) Math.sin(-(float) Math.PI / i);
+      coslookup[i] = (float) Math.cos(-(float) Math.PI / i);
+    }
+
+    realSin = new float[size / 4 + 1];
+    realCos = new float[size / 4 + 1];
+    for (int k = 0; k < realSin.length; k++)
+    {
+      realSin[k] = (float) Math.sin(2 * Math.PI * k / size);
+      realCos[k] = (float) Math.cos(2 * Math.PI * k / size);
+    }
+
+    twiddleReal = new float[size];
+    twiddleImag = new float[size];
+    for (int halfSize = 1; halfSize < size; halfSize *= 2)
+    {
+      float phaseShiftStepR = coslookup[halfSize];
+      float phaseShiftStepI = sinlookup[halfSize];
+      float currentPhaseShiftR = 1.0f;
+      float currentPhaseShiftI = 0.0f;
+      for (int step = 0; step < halfSize; step++)
+      {
+        twiddleReal[halfSize + step] = currentPhaseShiftR;
+        twiddleImag[halfSize + step] = currentPhaseShiftI;
+        float tmpR = currentPhaseShiftR;
+        currentPhaseShiftR = (tmpR * phaseShiftStepR) - (currentPhaseShiftI * phaseShiftStepI);
+        currentPhaseShiftI = (tmpR * phaseShiftStepI) + (currentPhaseShiftI * phaseShiftStepR);
+      }
+    }
+  }
+
+  /**
+   * The plan for FFTs of <code>size</code> points, built the first time it is
+   * asked for. <code>size</code> must be a power of two.
+   */
+  static FFTPlan forSize(int size)
+  {
+    return plans.computeIfAbsent(size, FFTPlan::new);
+  }
+}
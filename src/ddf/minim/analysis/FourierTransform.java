@@ -294,33 +294,11 @@ public abstract class FourierTransform
   // and also do spectrum shaping if necessary
   protected void fillSpectrum()
   {
-    for (int i = 0; i < spectrum.length; i++)
-    {
-      spectrum[i] = (float) Math.sqrt(real[i] * real[i] + imag[i] * imag[i]);
-    }
+    FFTKernels.INSTANCE.magnitudes(real, imag, spectrum);
 
     if (whichAverage == LINAVG)
     {
-      int avgWidth = (int) spectrum.length / averages.length;
-      for (int i = 0; i < averages.length; i++)
-      {
-        float avg = 0;
-        int j;
-        for (j = 0; j < avgWidth; j++)
-        {
-          int offset = j + i * avgWidth;
-          if (offset < spectrum.length)
-          {
-            avg += spectrum[offset];
-          }
-          else
-          {
-            break;
-          }
-        }
-        avg /= j + 1;
-        averages[i] = avg;
-      }
+      FFTKernels.INSTANCE.linearAverages(spectrum, averages);
     }
     else if (whichAverage == LOGAVG)
     {
@@ -35,6 +35,18 @@ public class RectangularWindow extends WindowFunction
   {
   }
 
+  /** Leaves the samples as they are; every coefficient would be 1. */
+  public void apply(float[] samples)
+  {
+    this.length = samples.length;
+  }
+
+  /** Leaves the samples as they are; every coefficient would be 1. */
+  public void apply(float[] samples, int offset, int length)
+  {
+    this.length = length;
+  }
+
   protected float value(int length, int index) 
   {
     return 1f;
@@ -0,0 +1,142 @@
+/*
+ *  Copyright (c) 2007 - 2008 by Damien Di Fede <ddf@compartmental.net>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package ddf.minim.analysis;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link FFTKernels} using the incubating Vector API, as many floats at a time
+ * as the CPU's widest registers hold. Every lane does the same multiplies,
+ * adds and square roots, in the same order, as the scalar code does for that
+ * float, so the results are bit for bit the same. Only ever created through
+ * {@link FFTKernels#INSTANCE}, once the module is known to be there.
+ */
+final class VectorFFTKernels extends FFTKernels
+{
+  private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+  // lane k of a linear average gathers from band k, avgWidth floats further on.
+  // the map used last, since an FFT always asks for the same width.
+  private volatile int[] lastIndexMap = new int[0];
+
+  VectorFFTKernels()
+  {
+    // with two lanes or fewer there is nothing to gain over the scalar code
+    if (SPECIES.length() < 4)
+    {
+      throw new UnsupportedOperationException("only " + SPECIES.length() + " float lanes");
+    }
+  }
+
+  String name()
+  {
+    return SPECIES.length() + " float lanes";
+  }
+
+  // stages up to halfSize = lanes - 1 don't fill a vector and stay scalar.
+  // from then on each vector does lanes consecutive butterfly steps of a group,
+  // with the phase shifts of those steps read from the plan.
+  void butterflies(float[] real, float[] imag, int n, int halfSize, FFTPlan plan)
+  {
+    int lanes = SPECIES.length();
+    if (halfSize < lanes)
+    {
+      super.butterflies(real, imag, n, halfSize, plan);
+      return;
+    }
+    float[] twiddleReal = plan.twiddleReal;
+    float[] twiddleImag = plan.twiddleImag;
+    for (int start = 0; start < n; start += 2 * halfSize)
+    {
+      for (int step = 0; step < halfSize; step += lanes)
+      {
+        int i = start + step;
+        int off = i + halfSize;
+        FloatVector wr = FloatVector.fromArray(SPECIES, twiddleReal, halfSize + step);
+        FloatVector wi = FloatVector.fromArray(SPECIES, twiddleImag, halfSize + step);
+        FloatVector offR = FloatVector.fromArray(SPECIES, real, off);
+        FloatVector offI = FloatVector.fromArray(SPECIES, imag, off);
+        FloatVector tr = wr.mul(offR).sub(wi.mul(offI));
+        FloatVector ti = wr.mul(offI).add(wi.mul(offR));
+        FloatVector r = FloatVector.fromArray(SPECIES, real, i);
+        FloatVector im = FloatVector.fromArray(SPECIES, imag, i);
+        r.sub(tr).intoArray(real, off);
+        im.sub(ti).intoArray(imag, off);
+        r.add(tr).intoArray(real, i);
+        im.add(ti).intoArray(imag, i);
+      }
+    }
+  }
+
+  void magnitudes(float[] real, float[] imag, float[] spectrum)
+  {
+    int bound = SPECIES.loopBound(spectrum.length);
+    int i = 0;
+    for (; i < bound; i += SPECIES.length())
+    {
+      FloatVector r = FloatVector.fromArray(SPECIES, real, i);
+      FloatVector im = FloatVector.fromArray(SPECIES, imag, i);
+      // a float square root rounds the same as the double one rounded to float
+      r.mul(r).add(im.mul(im)).sqrt().intoArray(spectrum, i);
+    }
+    for (; i < spectrum.length; i++)
+    {
+      spectrum[i] = (float) Math.sqrt(real[i] * real[i] + imag[i] * imag[i]);
+    }
+  }
+
+  // summing across the lanes would add the bands of a group in another order,
+  // so each lane sums a group of its own, in order, with a strided gather
+  void linearAverages(float[] spectrum, float[] averages)
+  {
+    int avgWidth = spectrum.length / averages.length;
+    int[] indexMap = indexMap(avgWidth);
+    int bound = SPECIES.loopBound(averages.length);
+    int i = 0;
+    for (; i < bound; i += SPECIES.length())
+    {
+      FloatVector avg = FloatVector.zero(SPECIES);
+      for (int j = 0; j < avgWidth; j++)
+      {
+        avg = avg.add(FloatVector.fromArray(SPECIES, spectrum, j + i * avgWidth, indexMap, 0));
+      }
+      avg.div(avgWidth + 1).intoArray(averages, i);
+    }
+    for (; i < averages.length; i++)
+    {
+      averages[i] = linearAverage(spectrum, avgWidth, i);
+    }
+  }
+
+  private int[] indexMap(int avgWidth)
+  {
+    int[] map = lastIndexMap;
+    if (map.length != SPECIES.length() || map[1] != avgWidth)
+    {
+      map = new int[SPECIES.length()];
+      for (int k = 0; k < map.length; k++)
+      {
+        map[k] = k * avgWidth;
+      }
+      lastIndexMap = map;
+    }
+    return map;
+  }
+}
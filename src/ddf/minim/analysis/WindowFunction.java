@@ -18,6 +18,8 @@
 
 package ddf.minim.analysis;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * A Window function represents a curve which is applied to a sample buffer to
  * reduce the introduction of spectral leakage in the Fourier transform.
@@ -47,6 +49,11 @@ package ddf.minim.analysis;
  * <code>WindowFunction</code> will call this method to apply the window to 
  * a sample buffer. The number passed to the method is an offset within the length
  * of the window curve.
+ * <p>
+ * The curve for each length is only computed once and kept in a table that
+ * every later call, from any thread, multiplies the samples by. So 
+ * <code>value</code> must only depend on its arguments and on settings that
+ * are fixed when the window is constructed.
  * 
  * @author Damien Di Fede
  * @author Corban Brook
@@ -61,6 +68,13 @@ public abstract class WindowFunction
   protected static final float TWO_PI = (float) (2 * Math.PI);
   protected int length;
   
+  // coefficient tables by window length. a table is never written after it
+  // has been built, so it can be shared by every thread using this window.
+  private final ConcurrentHashMap<Integer, float[]> tables = new ConcurrentHashMap<Integer, float[]>();
+  // the table used last, which is almost always the one wanted next.
+  // its length is the window length it was built for.
+  private volatile float[] lastTable = new float[0];
+  
   public WindowFunction()
   {
   }
@@ -74,9 +88,10 @@ public abstract class WindowFunction
   {
     this.length = samples.length;
 
+    float[] table = table(samples.length);
     for (int n = 0; n < samples.length; n ++) 
     {
-      samples[n] *= value(samples.length, n);
+      samples[n] *= table[n];
     }
   }
   
@@ -96,9 +111,10 @@ public abstract class WindowFunction
   {
 	  this.length = length;
 	  
-	  for(int n = offset; n < offset + length; ++n)
+	  float[] table = table(length);
+	  for(int n = 0; n < length; ++n)
 	  {
-		  samples[n] *= value(length, n - offset);
+		  samples[offset + n] *= table[n];
 	  }
   }
 
@@ -106,16 +122,34 @@ public abstract class WindowFunction
    * Generates the curve of the window function.
    * 
    * @param length the length of the window
-   * @return the shape of the window function
+   * @return the shape of the window function, a copy of the cached table
+   *         that the caller is free to change
    */
   public float[] generateCurve(int length)
   {
-    float[] samples = new float[length];
+    return table(length).clone();
+  }
+
+  // the coefficients for a window of this length, built the first time it's asked for
+  private float[] table(int length)
+  {
+    float[] table = lastTable;
+    if (table.length != length)
+    {
+      table = tables.computeIfAbsent(length, this::buildTable);
+      lastTable = table;
+    }
+    return table;
+  }
+
+  private float[] buildTable(int length)
+  {
+    float[] table = new float[length];
     for (int n = 0; n < length; n++) 
     {
-      samples[n] = 1f * value(length, n);  
+      table[n] = value(length, n);  
     }
-    return samples;
+    return table;
   }
 
   protected abstract float value(int length, int index);
@@ -28,6 +28,10 @@
 
 package ddf.minim.javasound;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.List;
 import java.util.Random;
 
@@ -236,6 +240,12 @@ public class FloatSampleTools {
 	private static final float invTwoPower23 = 1 / twoPower23;
 	private static final float invTwoPower31 = 1 / twoPower31;
 
+	// views for reading a whole 16 or 32 bit sample out of a byte array at once
+	private static final VarHandle SHORT_LE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle SHORT_BE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
 	/**
 	 * @see #byte2float(byte[] input, int inByteOffset, Object[] output, int
 	 *      outOffset, int frameCount, AudioFormat format, boolean
@@ -286,17 +296,16 @@ public class FloatSampleTools {
 			throw new ArrayIndexOutOfBoundsException(
 					"too few channel output array");
 		}
+		float[][] data = new float[channels][];
 		for (int channel = 0; channel < channels; channel++) {
-			float[] data = (float[]) output[channel];
-			if (data.length < frameCount + outOffset) {
-				data = new float[frameCount + outOffset];
-				output[channel] = data;
+			data[channel] = (float[]) output[channel];
+			if (data[channel].length < frameCount + outOffset) {
+				data[channel] = new float[frameCount + outOffset];
+				output[channel] = data[channel];
 			}
-
-			byte2floatGeneric(input, inByteOffset, format.getFrameSize(), data,
-					outOffset, frameCount, format);
-			inByteOffset += format.getFrameSize() / format.getChannels();
 		}
+		byte2floatDeinterleaved(input, inByteOffset, format.getFrameSize(),
+				data, channels, outOffset, frameCount, getFormatType(format));
 	}
 
 	/**
@@ -336,23 +345,21 @@ public class FloatSampleTools {
 		if (!allowAddChannel && channels > output.size()) {
 			channels = output.size();
 		}
+		float[][] data = new float[channels][];
 		for (int channel = 0; channel < channels; channel++) {
-			float[] data;
 			if (output.size() < channel) {
-				data = new float[frameCount + outOffset];
-				output.add(data);
+				data[channel] = new float[frameCount + outOffset];
+				output.add(data[channel]);
 			} else {
-				data = output.get(channel);
-				if (data.length < frameCount + outOffset) {
-					data = new float[frameCount + outOffset];
-					output.set(channel, data);
+				data[channel] = output.get(channel);
+				if (data[channel].length < frameCount + outOffset) {
+					data[channel] = new float[frameCount + outOffset];
+					output.set(channel, data[channel]);
 				}
 			}
-
-			byte2floatGeneric(input, inByteOffset, format.getFrameSize(), data,
-					outOffset, frameCount, format);
-			inByteOffset += format.getFrameSize() / format.getChannels();
 		}
+		byte2floatDeinterleaved(input, inByteOffset, format.getFrameSize(),
+				data, channels, outOffset, frameCount, getFormatType(format));
 	}
 
 	/**
@@ -393,6 +400,61 @@ public class FloatSampleTools {
 				outOffset, frameCount, format);
 	}
 
+	/**
+	 * Conversion function to convert the first <code>channelCount</code>
+	 * channels of an interleaved byte array to separate float arrays in a
+	 * single pass over the input. The float arrays will contain normalized
+	 * samples in the range [-1.0, +1.0].
+	 * 
+	 * @param input the audio data in an byte array
+	 * @param inByteOffset index in input where to start the conversion
+	 * @param output one float array per channel, each at least
+	 *            <code>outOffset + frameCount</code> long
+	 * @param channelCount how many channels to convert, starting with the
+	 *            first
+	 * @param outOffset the start offset in the output arrays
+	 * @param frameCount number of frames to be converted
+	 * @param format the input format. Only packed PCM is allowed
+	 * @throws IllegalArgumentException if one of the parameters is out of
+	 *             bounds
+	 */
+	public static void byte2floatDeinterleave(byte[] input, int inByteOffset,
+			float[][] output, int channelCount, int outOffset, int frameCount,
+			AudioFormat format) {
+
+		if (channelCount > format.getChannels() || channelCount > output.length) {
+			throw new IllegalArgumentException("channel count out of bounds");
+		}
+		byte2floatDeinterleaved(input, inByteOffset, format.getFrameSize(),
+				output, channelCount, outOffset, frameCount, getFormatType(format));
+	}
+
+	/**
+	 * Conversion function to convert an interleaved byte array to a single
+	 * float array holding the average of all channels, in one pass over the
+	 * input. The float array will contain normalized samples in the range
+	 * [-1.0, +1.0].
+	 * 
+	 * @param input the audio data in an byte array
+	 * @param inByteOffset index in input where to start the conversion
+	 * @param output the float array that receives the mixed down audio data
+	 * @param outOffset the start offset in <code>output</code>
+	 * @param frameCount number of frames to be converted
+	 * @param format the input format. Only packed PCM is allowed
+	 * @throws IllegalArgumentException if one of the parameters is out of
+	 *             bounds
+	 */
+	public static void byte2floatMono(byte[] input, int inByteOffset,
+			float[] output, int outOffset, int frameCount, AudioFormat format) {
+
+		if (output.length < frameCount + outOffset) {
+			throw new IllegalArgumentException("data is too small");
+		}
+		byte2floatMono(input, inByteOffset, format.getFrameSize(),
+				format.getChannels(), output, outOffset, frameCount,
+				getFormatType(format));
+	}
+
 	/**
 	 * Conversion function to convert an interleaved byte array to an
 	 * interleaved float array. The float array will contain normalized samples
@@ -479,70 +541,244 @@ public class FloatSampleTools {
 		// TDebug.out("FloatSampleTools.byte2floatGeneric, formatType="
 		// +formatType2Str(formatType));
 		// }
+		if (sampleCount <= 0) {
+			return;
+		}
 		int endCount = outOffset + sampleCount;
 		int inIndex = inByteOffset;
-		for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += inByteStep) {
-			// do conversion
-			switch (formatType) {
-			case CT_8S:
+		// pick the loop for the format once, rather than switching on every sample
+		switch (formatType) {
+		case CT_8S:
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += inByteStep) {
 				output[outIndex] = input[inIndex] * invTwoPower7;
-				break;
-			case CT_8U:
+			}
+			break;
+		case CT_8U:
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += inByteStep) {
 				output[outIndex] = ((input[inIndex] & 0xFF) - 128) * invTwoPower7;
-				break;
-			case CT_16SB:
-				output[outIndex] = ((input[inIndex] << 8) 
-						| (input[inIndex + 1] & 0xFF))
-						* invTwoPower15;
-				break;
-			case CT_16SL:
-				output[outIndex] = ((input[inIndex + 1] << 8) 
-						| (input[inIndex] & 0xFF))
-						* invTwoPower15;
-				break;
-			case CT_24_3SB:
+			}
+			break;
+		case CT_16SB:
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += inByteStep) {
+				output[outIndex] = (short) SHORT_BE.get(input, inIndex) * invTwoPower15;
+			}
+			break;
+		case CT_16SL:
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += inByteStep) {
+				output[outIndex] = (short) SHORT_LE.get(input, inIndex) * invTwoPower15;
+			}
+			break;
+		case CT_24_3SB:
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += inByteStep) {
 				output[outIndex] = ((input[inIndex] << 16)
 						| ((input[inIndex + 1] & 0xFF) << 8) 
 						| (input[inIndex + 2] & 0xFF))
 						* invTwoPower23;
-				break;
-			case CT_24_3SL:
+			}
+			break;
+		case CT_24_3SL:
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += inByteStep) {
 				output[outIndex] = ((input[inIndex + 2] << 16)
 						| ((input[inIndex + 1] & 0xFF) << 8) 
 						| (input[inIndex] & 0xFF))
 						* invTwoPower23;
-				break;
-			case CT_24_4SB:
-				output[outIndex] = ((input[inIndex + 1] << 16)
-						| ((input[inIndex + 2] & 0xFF) << 8) 
-						| (input[inIndex + 3] & 0xFF))
+			}
+			break;
+		case CT_32SB:
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += inByteStep) {
+				output[outIndex] = (int) INT_BE.get(input, inIndex) * invTwoPower31;
+			}
+			break;
+		case CT_32SL:
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += inByteStep) {
+				output[outIndex] = (int) INT_LE.get(input, inIndex) * invTwoPower31;
+			}
+			break;
+		default:
+			// 24 bits in 4 bytes, and anything unsupported
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += inByteStep) {
+				output[outIndex] = sample(input, inIndex, formatType);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Same as the byte array version, but reads the samples straight out of a
+	 * ByteBuffer, such as a file mapped into memory, without copying them to
+	 * a byte array first. The buffer's position and byte order are left as
+	 * they are.
+	 */
+	static void byte2floatGeneric(ByteBuffer input, int inByteOffset,
+			int inByteStep, float[] output, int outOffset, int sampleCount,
+			int formatType) {
+		if (sampleCount <= 0) {
+			return;
+		}
+		ByteOrder order = (formatType & F_BIGENDIAN) != 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+		if (input.order() != order) {
+			input = input.duplicate().order(order);
+		}
+		int endCount = outOffset + sampleCount;
+		int inIndex = inByteOffset;
+		switch (formatType) {
+		case CT_8S:
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += inByteStep) {
+				output[outIndex] = input.get(inIndex) * invTwoPower7;
+			}
+			break;
+		case CT_8U:
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += inByteStep) {
+				output[outIndex] = ((input.get(inIndex) & 0xFF) - 128) * invTwoPower7;
+			}
+			break;
+		case CT_16SB:
+		case CT_16SL:
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += inByteStep) {
+				output[outIndex] = input.getShort(inIndex) * invTwoPower15;
+			}
+			break;
+		case CT_24_3SB:
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += inByteStep) {
+				output[outIndex] = ((input.get(inIndex) << 16)
+						| ((input.get(inIndex + 1) & 0xFF) << 8) 
+						| (input.get(inIndex + 2) & 0xFF))
 						* invTwoPower23;
-				break;
-			case CT_24_4SL:
-				// TODO: verify the indexes
-				output[outIndex] = ((input[inIndex + 3] << 16)
-						| ((input[inIndex + 2] & 0xFF) << 8) 
-						| (input[inIndex + 1] & 0xFF))
+			}
+			break;
+		case CT_24_3SL:
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += inByteStep) {
+				output[outIndex] = ((input.get(inIndex + 2) << 16)
+						| ((input.get(inIndex + 1) & 0xFF) << 8) 
+						| (input.get(inIndex) & 0xFF))
 						* invTwoPower23;
-				break;
-			case CT_32SB:
-				output[outIndex] = ((input[inIndex] << 24)
-						| ((input[inIndex + 1] & 0xFF) << 16)
-						| ((input[inIndex + 2] & 0xFF) << 8) 
-						| (input[inIndex + 3] & 0xFF))
-						* invTwoPower31;
-				break;
-			case CT_32SL:
-				output[outIndex] = ((input[inIndex + 3] << 24)
-						| ((input[inIndex + 2] & 0xFF) << 16)
-						| ((input[inIndex + 1] & 0xFF) << 8) 
-						| (input[inIndex] & 0xFF))
-						* invTwoPower31;
-				break;
-			default:
-				throw new IllegalArgumentException("unsupported format="
-						+ formatType2Str(formatType));
 			}
+			break;
+		case CT_32SB:
+		case CT_32SL:
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += inByteStep) {
+				output[outIndex] = input.getInt(inIndex) * invTwoPower31;
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("unsupported format="
+					+ formatType2Str(formatType));
+		}
+	}
+
+	/**
+	 * Converts the first <code>channelCount</code> channels of every frame in
+	 * one pass, writing each channel to its own array.
+	 */
+	static void byte2floatDeinterleaved(byte[] input, int inByteOffset,
+			int frameSize, float[][] output, int channelCount, int outOffset,
+			int frameCount, int formatType) {
+		int sampleSize = getSampleSize(formatType);
+		int endCount = outOffset + frameCount;
+		if (channelCount == 1) {
+			byte2floatGeneric(input, inByteOffset, frameSize, output[0],
+					outOffset, frameCount, formatType);
+		} else if (channelCount == 2 && formatType == CT_16SL) {
+			float[] left = output[0];
+			float[] right = output[1];
+			int inIndex = inByteOffset;
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += frameSize) {
+				left[outIndex] = (short) SHORT_LE.get(input, inIndex) * invTwoPower15;
+				right[outIndex] = (short) SHORT_LE.get(input, inIndex + 2) * invTwoPower15;
+			}
+		} else if (channelCount == 2 && formatType == CT_16SB) {
+			float[] left = output[0];
+			float[] right = output[1];
+			int inIndex = inByteOffset;
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += frameSize) {
+				left[outIndex] = (short) SHORT_BE.get(input, inIndex) * invTwoPower15;
+				right[outIndex] = (short) SHORT_BE.get(input, inIndex + 2) * invTwoPower15;
+			}
+		} else {
+			// less common layouts still avoid the per-sample format switch
+			for (int channel = 0; channel < channelCount; channel++) {
+				byte2floatGeneric(input, inByteOffset + channel * sampleSize,
+						frameSize, output[channel], outOffset, frameCount,
+						formatType);
+			}
+		}
+	}
+
+	/**
+	 * Converts every frame to the average of its channels in one pass.
+	 */
+	static void byte2floatMono(byte[] input, int inByteOffset, int frameSize,
+			int channels, float[] output, int outOffset, int frameCount,
+			int formatType) {
+		int endCount = outOffset + frameCount;
+		int inIndex = inByteOffset;
+		if (channels == 1) {
+			byte2floatGeneric(input, inByteOffset, frameSize, output,
+					outOffset, frameCount, formatType);
+		} else if (channels == 2 && formatType == CT_16SL) {
+			float scale = invTwoPower15 * 0.5f;
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += frameSize) {
+				output[outIndex] = ((short) SHORT_LE.get(input, inIndex)
+						+ (short) SHORT_LE.get(input, inIndex + 2)) * scale;
+			}
+		} else if (channels == 2 && formatType == CT_16SB) {
+			float scale = invTwoPower15 * 0.5f;
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += frameSize) {
+				output[outIndex] = ((short) SHORT_BE.get(input, inIndex)
+						+ (short) SHORT_BE.get(input, inIndex + 2)) * scale;
+			}
+		} else {
+			int sampleSize = getSampleSize(formatType);
+			float scale = 1f / channels;
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inIndex += frameSize) {
+				float sum = 0;
+				for (int channel = 0; channel < channels; channel++) {
+					sum += sample(input, inIndex + channel * sampleSize, formatType);
+				}
+				output[outIndex] = sum * scale;
+			}
+		}
+	}
+
+	// converts a single sample, for the formats that don't have a loop of their own
+	private static float sample(byte[] input, int inIndex, int formatType) {
+		switch (formatType) {
+		case CT_8S:
+			return input[inIndex] * invTwoPower7;
+		case CT_8U:
+			return ((input[inIndex] & 0xFF) - 128) * invTwoPower7;
+		case CT_16SB:
+			return (short) SHORT_BE.get(input, inIndex) * invTwoPower15;
+		case CT_16SL:
+			return (short) SHORT_LE.get(input, inIndex) * invTwoPower15;
+		case CT_24_3SB:
+			return ((input[inIndex] << 16)
+					| ((input[inIndex + 1] & 0xFF) << 8) 
+					| (input[inIndex + 2] & 0xFF))
+					* invTwoPower23;
+		case CT_24_3SL:
+			return ((input[inIndex + 2] << 16)
+					| ((input[inIndex + 1] & 0xFF) << 8) 
+					| (input[inIndex] & 0xFF))
+					* invTwoPower23;
+		case CT_24_4SB:
+			return ((input[inIndex + 1] << 16)
+					| ((input[inIndex + 2] & 0xFF) << 8) 
+					| (input[inIndex + 3] & 0xFF))
+					* invTwoPower23;
+		case CT_24_4SL:
+			// TODO: verify the indexes
+			return ((input[inIndex + 3] << 16)
+					| ((input[inIndex + 2] & 0xFF) << 8) 
+					| (input[inIndex + 1] & 0xFF))
+					* invTwoPower23;
+		case CT_32SB:
+			return (int) INT_BE.get(input, inIndex) * invTwoPower31;
+		case CT_32SL:
+			return (int) INT_LE.get(input, inIndex) * invTwoPower31;
+		default:
+			throw new IllegalArgumentException("unsupported format="
+					+ formatType2Str(formatType));
 		}
 	}
 
@@ -0,0 +1,137 @@
+package ddf.minim.javasound;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+import ddf.minim.AudioMetaData;
+import ddf.minim.MultiChannelBuffer;
+import ddf.minim.spi.AudioDecoder;
+
+// Pulls PCM from the AudioInputStream on the caller's thread.
+// There is deliberately no locking here: a decoder belongs to one thread.
+class JSAudioDecoder implements AudioDecoder
+{
+	private final JSMinim          system;
+	private final AudioMetaData    meta;
+	private final AudioFormat      format;
+	private final AudioInputStream ais;
+	// grown on demand to hold the bytes for one read
+	private byte[]                 rawBytes;
+	// the channels of the MultiChannelBuffer being filled, reused between reads
+	private float[][]              channelView;
+	private boolean                endOfStream;
+
+	JSAudioDecoder(JSMinim sys, AudioMetaData metaData, AudioInputStream stream)
+	{
+		system = sys;
+		meta = metaData;
+		ais = stream;
+		format = stream.getFormat();
+		rawBytes = new byte[0];
+		endOfStream = false;
+	}
+
+	public AudioFormat getFormat()
+	{
+		return format;
+	}
+
+	public AudioMetaData getMetaData()
+	{
+		return meta;
+	}
+
+	public long getSampleFrameLength()
+	{
+		return ais.getFrameLength();
+	}
+
+	public int read(float[][] channels, int offset, int frameCount)
+	{
+		int framesRead = readFrames( frameCount );
+		int channelCount = Math.min( channels.length, format.getChannels() );
+		FloatSampleTools.byte2floatDeinterleave( rawBytes, 0, channels, channelCount, offset, framesRead, format );
+		return framesRead;
+	}
+
+	public int read(MultiChannelBuffer buffer)
+	{
+		int bufferSize = buffer.getBufferSize();
+		int framesRead = readFrames( bufferSize );
+		int channelCount = Math.min( buffer.getChannelCount(), format.getChannels() );
+		if ( channelView == null || channelView.length != channelCount )
+		{
+			channelView = new float[channelCount][];
+		}
+		for ( int c = 0; c < channelCount; c++ )
+		{
+			channelView[c] = buffer.getChannel( c );
+		}
+		FloatSampleTools.byte2floatDeinterleave( rawBytes, 0, channelView, channelCount, 0, framesRead, format );
+		for ( int c = 0; c < buffer.getChannelCount(); c++ )
+		{
+			int converted = c < channelCount ? framesRead : 0;
+			Arrays.fill( buffer.getChannel( c ), converted, bufferSize, 0f );
+		}
+		return framesRead;
+	}
+
+	public int readMono(float[] mono, int offset, int frameCount)
+	{
+		int framesRead = readFrames( frameCount );
+		FloatSampleTools.byte2floatMono( rawBytes, 0, mono, offset, framesRead, format );
+		return framesRead;
+	}
+
+	// reads up to frameCount whole frames into rawBytes, returns how many we got
+	private int readFrames(int frameCount)
+	{
+		if ( endOfStream || frameCount <= 0 )
+		{
+			return 0;
+		}
+		int frameSize = format.getFrameSize();
+		int toRead = frameCount * frameSize;
+		if ( rawBytes.length < toRead )
+		{
+			rawBytes = new byte[toRead];
+		}
+		int bytesRead = 0;
+		try
+		{
+			// decoded streams hand out a few KB at a time, so keep going until
+			// we have everything that was asked for
+			while ( bytesRead < toRead )
+			{
+				int actualRead = ais.read( rawBytes, bytesRead, toRead - bytesRead );
+				if ( actualRead == -1 )
+				{
+					endOfStream = true;
+					break;
+				}
+				bytesRead += actualRead;
+			}
+		}
+		catch ( IOException e )
+		{
+			system.error( "Error reading from the file - " + e.getMessage() );
+			endOfStream = true;
+		}
+		return bytesRead / frameSize;
+	}
+
+	public void close()
+	{
+		endOfStream = true;
+		try
+		{
+			ais.close();
+		}
+		catch ( IOException e )
+		{
+		}
+	}
+}
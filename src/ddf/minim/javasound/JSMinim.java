@@ -48,6 +48,7 @@ import ddf.minim.AudioMetaData;
 import ddf.minim.AudioSample;
 import ddf.minim.Minim;
 import ddf.minim.Recordable;
+import ddf.minim.spi.AudioDecoder;
 import ddf.minim.spi.AudioOut;
 import ddf.minim.spi.AudioRecording;
 import ddf.minim.spi.AudioRecordingStream;
@@ -325,6 +326,65 @@ public class JSMinim implements MinimServiceProvider
 		return mstream;
 	}
 
+	public AudioDecoder getAudioDecoder(String filename)
+	{
+		// plain PCM WAVs on disk are read straight out of a memory mapping
+		File file = new File(filename);
+		if (filename.toLowerCase().endsWith(".wav") && file.isFile())
+		{
+			try
+			{
+				AudioDecoder decoder = WavAudioDecoder.open(file);
+				if (decoder != null)
+				{
+					debug("Decoding " + filename + " from a memory mapped file.");
+					debug("File format is: " + decoder.getFormat().toString());
+					return decoder;
+				}
+			}
+			catch (IOException e)
+			{
+				debug("Couldn't map " + filename + ", falling back to a stream: " + e.getMessage());
+			}
+		}
+		AudioInputStream ais = getAudioInputStream(filename);
+		if (ais == null)
+		{
+			return null;
+		}
+		debug("Decoding from " + ais.getClass().toString());
+		debug("File format is: " + ais.getFormat().toString());
+		AudioFormat format = ais.getFormat();
+		// same conversion rules as getAudioRecordingStream, minus the line
+		if (!AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding()))
+		{
+			AudioFormat baseFormat = format;
+			format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
+												baseFormat.getSampleRate(), 16,
+												baseFormat.getChannels(),
+												baseFormat.getChannels() * 2,
+												baseFormat.getSampleRate(), false);
+			AudioInputStream decAis = getAudioInputStream(format, ais);
+			if (decAis == null)
+			{
+				return null;
+			}
+			Map<String, Object> props = getID3Tags(filename);
+			long lengthInMillis = -1;
+			if (props.containsKey("duration"))
+			{
+				Long dur = (Long)props.get("duration");
+				if ( dur.longValue() > 0 )
+				{
+					lengthInMillis = dur.longValue() / 1000;
+				}
+			}
+			return new JSAudioDecoder(this, new MP3MetaData(filename, lengthInMillis, props), decAis);
+		}
+		long length = (long)((ais.getFrameLength() * 1000.0) / format.getFrameRate());
+		return new JSAudioDecoder(this, new BasicMetaData(filename, length, ais.getFrameLength()), ais);
+	}
+
 	private Map<String, Object> getID3Tags(String filename)
 	{
 		debug("Getting the properties.");
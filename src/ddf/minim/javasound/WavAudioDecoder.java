@@ -0,0 +1,298 @@
+package ddf.minim.javasound;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+
+import ddf.minim.AudioMetaData;
+import ddf.minim.MultiChannelBuffer;
+import ddf.minim.spi.AudioDecoder;
+
+// Reads integer PCM straight out of a WAV file mapped into memory, so the
+// samples go from the page cache to the float arrays without passing through
+// an AudioInputStream and a byte array on the way.
+// Like JSAudioDecoder, a decoder belongs to one thread. The mapping is owned
+// by an arena, so close() unmaps the file right away instead of whenever the
+// buffer happens to be collected; until then it would keep using address space
+// and, on Windows, keep the file from being replaced.
+class WavAudioDecoder implements AudioDecoder
+{
+	private static final int	WAVE_FORMAT_PCM			= 1;
+	private static final int	WAVE_FORMAT_EXTENSIBLE	= 0xFFFE;
+
+	private final AudioMetaData	meta;
+	private final AudioFormat	format;
+	private final Arena			mapping;
+	private final ByteBuffer	data;
+	private final int			formatType;
+	private final int			frameSize;
+	private final long			frameLength;
+	// the frame the next read starts at
+	private long				framePosition;
+	// the channels of the MultiChannelBuffer being filled, reused between reads
+	private float[][]			channelView;
+	// one channel at a time while mixing down, grown on demand
+	private float[]				monoScratch;
+	private boolean				closed;
+
+	private WavAudioDecoder(AudioMetaData metaData, AudioFormat audioFormat, Arena arena, ByteBuffer samples)
+	{
+		meta = metaData;
+		format = audioFormat;
+		mapping = arena;
+		data = samples;
+		formatType = FloatSampleTools.getFormatType( format );
+		frameSize = format.getFrameSize();
+		frameLength = data.capacity() / frameSize;
+	}
+
+	/**
+	 * Maps the data chunk of a WAV file. Returns null if the file isn't a WAV
+	 * holding 8, 16, 24 or 32 bit integer PCM, or if the data chunk is too big
+	 * to map in one piece, so that the caller can fall back to the regular
+	 * AudioInputStream path.
+	 */
+	static WavAudioDecoder open(File file) throws IOException
+	{
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) )
+		{
+			long fileSize = channel.size();
+			ByteBuffer header = ByteBuffer.allocate( 12 ).order( ByteOrder.LITTLE_ENDIAN );
+			if ( !readFully( channel, header, 0 ) || header.getInt( 0 ) != fourCC( "RIFF" )
+					|| header.getInt( 8 ) != fourCC( "WAVE" ) )
+			{
+				return null;
+			}
+
+			AudioFormat audioFormat = null;
+			ByteBuffer chunk = ByteBuffer.allocate( 8 ).order( ByteOrder.LITTLE_ENDIAN );
+			long position = 12;
+			while ( position + 8 <= fileSize )
+			{
+				chunk.clear();
+				if ( !readFully( channel, chunk, position ) )
+				{
+					return null;
+				}
+				int id = chunk.getInt( 0 );
+				long size = chunk.getInt( 4 ) & 0xFFFFFFFFL;
+				long body = position + 8;
+				if ( id == fourCC( "fmt " ) )
+				{
+					audioFormat = readFormat( channel, body, size );
+					if ( audioFormat == null )
+					{
+						return null;
+					}
+				}
+				else if ( id == fourCC( "data" ) )
+				{
+					if ( audioFormat == null )
+					{
+						return null;
+					}
+					// a truncated file claims more data than it has
+					size = Math.min( size, fileSize - body );
+					size -= size % audioFormat.getFrameSize();
+					if ( size > Integer.MAX_VALUE )
+					{
+						return null;
+					}
+					long frames = size / audioFormat.getFrameSize();
+					long millis = (long)( ( frames * 1000.0 ) / audioFormat.getFrameRate() );
+					// shared rather than confined, so whichever thread ends up
+					// closing the decoder can unmap it
+					Arena arena = Arena.ofShared();
+					try
+					{
+						MemorySegment samples = channel.map( FileChannel.MapMode.READ_ONLY, body, size, arena );
+						return new WavAudioDecoder( new BasicMetaData( file.getPath(), millis, frames ), audioFormat, arena,
+								samples.asByteBuffer().order( ByteOrder.LITTLE_ENDIAN ) );
+					}
+					catch ( IOException | RuntimeException e )
+					{
+						arena.close();
+						throw e;
+					}
+				}
+				// chunks are padded to an even length
+				position = body + size + ( size & 1 );
+			}
+			return null;
+		}
+	}
+
+	private static AudioFormat readFormat(FileChannel channel, long position, long size) throws IOException
+	{
+		if ( size < 16 )
+		{
+			return null;
+		}
+		ByteBuffer fmt = ByteBuffer.allocate( (int)Math.min( size, 40 ) ).order( ByteOrder.LITTLE_ENDIAN );
+		if ( !readFully( channel, fmt, position ) )
+		{
+			return null;
+		}
+		int tag = fmt.getShort( 0 ) & 0xFFFF;
+		int channels = fmt.getShort( 2 ) & 0xFFFF;
+		int sampleRate = fmt.getInt( 4 );
+		int blockAlign = fmt.getShort( 12 ) & 0xFFFF;
+		int bits = fmt.getShort( 14 ) & 0xFFFF;
+		if ( tag == WAVE_FORMAT_EXTENSIBLE )
+		{
+			// the sub format GUID starts with the plain format tag
+			if ( fmt.capacity() < 26 || ( fmt.getShort( 24 ) & 0xFFFF ) != WAVE_FORMAT_PCM )
+			{
+				return null;
+			}
+		}
+		else if ( tag != WAVE_FORMAT_PCM )
+		{
+			return null;
+		}
+		if ( channels == 0 || sampleRate <= 0 || bits % 8 != 0 || bits < 8 || bits > 32
+				|| blockAlign != channels * ( bits / 8 ) )
+		{
+			return null;
+		}
+		// WAV stores 8 bit samples unsigned and everything else signed
+		return new AudioFormat( sampleRate, bits, channels, bits > 8, false );
+	}
+
+	private static boolean readFully(FileChannel channel, ByteBuffer target, long position) throws IOException
+	{
+		while ( target.hasRemaining() )
+		{
+			int read = channel.read( target, position );
+			if ( read < 0 )
+			{
+				return false;
+			}
+			position += read;
+		}
+		return true;
+	}
+
+	private static int fourCC(String id)
+	{
+		return id.charAt( 0 ) | ( id.charAt( 1 ) << 8 ) | ( id.charAt( 2 ) << 16 ) | ( id.charAt( 3 ) << 24 );
+	}
+
+	public AudioFormat getFormat()
+	{
+		return format;
+	}
+
+	public AudioMetaData getMetaData()
+	{
+		return meta;
+	}
+
+	public long getSampleFrameLength()
+	{
+		return frameLength;
+	}
+
+	public int read(float[][] channels, int offset, int frameCount)
+	{
+		int frames = claimFrames( frameCount );
+		int channelCount = Math.min( channels.length, format.getChannels() );
+		convert( channels, channelCount, offset, frames );
+		return frames;
+	}
+
+	public int read(MultiChannelBuffer buffer)
+	{
+		int bufferSize = buffer.getBufferSize();
+		int frames = claimFrames( bufferSize );
+		int channelCount = Math.min( buffer.getChannelCount(), format.getChannels() );
+		if ( channelView == null || channelView.length != channelCount )
+		{
+			channelView = new float[channelCount][];
+		}
+		for ( int c = 0; c < channelCount; c++ )
+		{
+			channelView[c] = buffer.getChannel( c );
+		}
+		convert( channelView, channelCount, 0, frames );
+		for ( int c = 0; c < buffer.getChannelCount(); c++ )
+		{
+			int converted = c < channelCount ? frames : 0;
+			Arrays.fill( buffer.getChannel( c ), converted, bufferSize, 0f );
+		}
+		return frames;
+	}
+
+	public int readMono(float[] mono, int offset, int frameCount)
+	{
+		int frames = claimFrames( frameCount );
+		int start = (int)( ( framePosition - frames ) * frameSize );
+		int channels = format.getChannels();
+		if ( channels == 1 )
+		{
+			FloatSampleTools.byte2floatGeneric( data, start, frameSize, mono, offset, frames, formatType );
+			return frames;
+		}
+		// sum the channels in place, one channel at a time
+		int sampleSize = frameSize / channels;
+		if ( monoScratch == null || monoScratch.length < frames )
+		{
+			monoScratch = new float[frames];
+		}
+		float[] scratch = monoScratch;
+		Arrays.fill( mono, offset, offset + frames, 0f );
+		for ( int c = 0; c < channels; c++ )
+		{
+			FloatSampleTools.byte2floatGeneric( data, start + c * sampleSize, frameSize, scratch, 0, frames, formatType );
+			for ( int i = 0; i < frames; i++ )
+			{
+				mono[offset + i] += scratch[i];
+			}
+		}
+		float scale = 1f / channels;
+		for ( int i = 0; i < frames; i++ )
+		{
+			mono[offset + i] *= scale;
+		}
+		return frames;
+	}
+
+	// moves the read position forward by up to frameCount frames, returns how many
+	private int claimFrames(int frameCount)
+	{
+		if ( closed || frameCount <= 0 )
+		{
+			return 0;
+		}
+		int frames = (int)Math.min( frameCount, frameLength - framePosition );
+		framePosition += frames;
+		return frames;
+	}
+
+	private void convert(float[][] channels, int channelCount, int offset, int frames)
+	{
+		int start = (int)( ( framePosition - frames ) * frameSize );
+		int sampleSize = frameSize / format.getChannels();
+		for ( int c = 0; c < channelCount; c++ )
+		{
+			FloatSampleTools.byte2floatGeneric( data, start + c * sampleSize, frameSize, channels[c], offset, frames, formatType );
+		}
+	}
+
+	public void close()
+	{
+		if ( !closed )
+		{
+			closed = true;
+			mapping.close();
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package ddf.minim.spi;
+
+import javax.sound.sampled.AudioFormat;
+
+import ddf.minim.AudioMetaData;
+import ddf.minim.MultiChannelBuffer;
+
+/**
+ * An <code>AudioDecoder</code> pulls decoded PCM from a file straight into 
+ * buffers owned by the caller. Unlike an {@link AudioRecordingStream} it has
+ * no output line, no IO thread and no play state, so it is the cheapest way 
+ * to walk through a file for offline analysis. Nothing is read until you call
+ * one of the <code>read</code> methods, and you should <code>close()</code> 
+ * it when you are done.
+ * <p>
+ * An <code>AudioDecoder</code> is not thread-safe; use one per thread.
+ */
+public interface AudioDecoder
+{
+  /**
+   * @return the format of the decoded samples, which is always a PCM format.
+   */
+  AudioFormat getFormat();
+  
+  /**
+   * @return the meta data of the file being decoded.
+   */
+  AudioMetaData getMetaData();
+  
+  /**
+   * @return the length of the file in sample frames, or -1 if it is unknown.
+   */
+  long getSampleFrameLength();
+  
+  /**
+   * Decodes up to <code>frameCount</code> sample frames into 
+   * <code>channels[c][offset]</code> through 
+   * <code>channels[c][offset + frameCount - 1]</code>. If fewer arrays than 
+   * the file has channels are passed, only those channels are converted.
+   * 
+   * @param channels the arrays that receive the samples, one per channel
+   * @param offset where in each array to start writing
+   * @param frameCount how many sample frames to decode
+   * @return the number of sample frames actually decoded, 0 once the end of the file has been reached
+   */
+  int read(float[][] channels, int offset, int frameCount);
+  
+  /**
+   * Fills <code>buffer</code> with the next <code>buffer.getBufferSize()</code> 
+   * sample frames. Frames that could not be decoded because the end of the 
+   * file was reached are set to silence.
+   * 
+   * @param buffer the MultiChannelBuffer to fill
+   * @return the number of sample frames actually decoded
+   */
+  int read(MultiChannelBuffer buffer);
+  
+  /**
+   * Decodes up to <code>frameCount</code> sample frames, mixing all channels 
+   * down to their average, into <code>mono[offset]</code> through 
+   * <code>mono[offset + frameCount - 1]</code>.
+   * 
+   * @param mono the array that receives the mixed down samples
+   * @param offset where in the array to start writing
+   * @param frameCount how many sample frames to decode
+   * @return the number of sample frames actually decoded, 0 once the end of the file has been reached
+   */
+  int readMono(float[] mono, int offset, int frameCount);
+  
+  /**
+   * Releases the file. The decoder can't be used after this.
+   */
+  void close();
+}
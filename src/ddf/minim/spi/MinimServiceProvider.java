@@ -87,6 +87,15 @@ public interface MinimServiceProvider
    */
   AudioRecordingStream getAudioRecordingStream(String filename, int bufferSize, boolean inMemory);
   
+  /**
+   * Should return an {@link AudioDecoder} that decodes the file requested into buffers 
+   * provided by the caller, without opening an output line or starting any threads.
+   * 
+   * @param filename the name of the file to decode
+   * @return an AudioDecoder for the file, or null if it could not be opened
+   */
+  AudioDecoder getAudioDecoder(String filename);
+  
   /**
    * Should return an {@link  AudioStream} with the requested parameters. What Minim is 
    * expecting this stream to be reading from is the active audio input of the computer, 
@@ -0,0 +1,176 @@
+package autostepper;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** What the artwork cache remembers of a search, and for how long. */
+class ArtworkCacheTest {
+
+    private static final byte[] IMAGE = { 1, 2, 3, 4 };
+    private static final long MINUTE = 60L * 1000;
+
+    @Test
+    void hitIsSearchedOnce(@TempDir Path dir) throws IOException {
+        ArtworkCache cache = new ArtworkCache(dir.toFile());
+        AtomicInteger searches = new AtomicInteger();
+        ArtworkCache.Search search = (term, destination) -> {
+            searches.incrementAndGet();
+            Files.write(destination.toPath(), IMAGE);
+            return true;
+        };
+
+        Path first = cache.find("Artist  Album", search);
+        Path second = cache.find("artist album", search);
+
+        assertEquals(1, searches.get());
+        assertEquals(first, second);
+        assertArrayEquals(IMAGE, Files.readAllBytes(first));
+    }
+
+    @Test
+    void missIsKeptForADay(@TempDir Path dir) throws IOException {
+        ArtworkCache cache = new ArtworkCache(dir.toFile());
+        AtomicInteger searches = new AtomicInteger();
+        ArtworkCache.Search nothing = (term, destination) -> {
+            searches.incrementAndGet();
+            return false;
+        };
+
+        assertNull(cache.find("nobody", nothing));
+        age(dir, 60 * MINUTE);
+        assertNull(cache.find("nobody", nothing));
+        assertEquals(1, searches.get());
+
+        age(dir, ArtworkCache.MISS_TTL_MILLIS);
+        cache.find("nobody", nothing);
+        assertEquals(2, searches.get());
+    }
+
+    @Test
+    void failureIsOnlyKeptForMinutes(@TempDir Path dir) throws IOException {
+        ArtworkCache cache = new ArtworkCache(dir.toFile());
+        AtomicInteger searches = new AtomicInteger();
+        ArtworkCache.Search offline = (term, destination) -> {
+            searches.incrementAndGet();
+            throw new IOException("connection refused");
+        };
+
+        assertNull(cache.find("somebody", offline));
+        assertNull(cache.find("somebody", offline));
+        assertEquals(1, searches.get());
+
+        age(dir, ArtworkCache.FAILURE_TTL_MILLIS);
+        cache.find("somebody", offline);
+        assertEquals(2, searches.get());
+    }
+
+    @Test
+    void searchThatThrowsIsAFailure(@TempDir Path dir) throws IOException {
+        ArtworkCache cache = new ArtworkCache(dir.toFile());
+        AtomicInteger searches = new AtomicInteger();
+        ArtworkCache.Search broken = (term, destination) -> {
+            searches.incrementAndGet();
+            throw new IllegalArgumentException("unexpected page");
+        };
+
+        assertNull(cache.find("somebody", broken));
+        assertNull(cache.find("somebody", broken));
+        assertEquals(1, searches.get());
+
+        age(dir, ArtworkCache.FAILURE_TTL_MILLIS);
+        cache.find("somebody", broken);
+        assertEquals(2, searches.get());
+    }
+
+    @Test
+    void emptyDownloadIsAFailure(@TempDir Path dir) throws IOException {
+        ArtworkCache cache = new ArtworkCache(dir.toFile());
+        AtomicInteger searches = new AtomicInteger();
+        ArtworkCache.Search empty = (term, destination) -> {
+            searches.incrementAndGet();
+            Files.write(destination.toPath(), new byte[0]);
+            return true;
+        };
+
+        assertNull(cache.find("somebody", empty));
+        age(dir, ArtworkCache.FAILURE_TTL_MILLIS);
+        cache.find("somebody", empty);
+        assertEquals(2, searches.get());
+    }
+
+    @Test
+    void hitLeavesTheLinkedImagesDateAlone(@TempDir Path dir) throws IOException {
+        ArtworkCache cache = new ArtworkCache(dir.resolve("cache").toFile());
+        Path image = cache.find("artist", save(IMAGE));
+        Path song = dir.resolve("song_img.png");
+        ArtworkCache.place(image, song.toFile());
+        FileTime placed = FileTime.fromMillis(Files.getLastModifiedTime(song).toMillis() - 60 * MINUTE);
+        Files.setLastModifiedTime(song, placed);
+
+        assertEquals(image, cache.find("artist", save(IMAGE)));
+
+        assertEquals(placed, Files.getLastModifiedTime(song));
+    }
+
+    @Test
+    void linkedImagesAreNotEvicted(@TempDir Path dir) throws IOException {
+        // room for one image of the two
+        ArtworkCache cache = new ArtworkCache(dir.resolve("cache").toFile(), IMAGE.length);
+        Path linked = cache.find("first", save(IMAGE));
+        assumeTrue(ArtworkCache.place(linked, dir.resolve("song_img.png").toFile()));
+        assumeTrue(linkCount(linked) == 2, "no hard links on this file system");
+
+        Path other = cache.find("second", save(new byte[] { 5, 6, 7, 8 }));
+        // last used well before the next one, whatever the clock's resolution
+        Path otherUsed = other.resolveSibling(other.getFileName().toString().replace(".png", ".used"));
+        Files.setLastModifiedTime(otherUsed, FileTime.fromMillis(Files.getLastModifiedTime(otherUsed).toMillis() - MINUTE));
+        Path third = cache.find("third", save(new byte[] { 9, 10, 11, 12 }));
+
+        assertTrue(Files.exists(linked), "evicted an image a song folder still links to");
+        assertTrue(Files.exists(third));
+        assertFalse(Files.exists(other), "the least recently used unlinked image stayed");
+    }
+
+    private static ArtworkCache.Search save(byte[] image) {
+        return (term, destination) -> {
+            Files.write(destination.toPath(), image);
+            return true;
+        };
+    }
+
+    private static int linkCount(Path file) throws IOException {
+        try {
+            return (Integer) Files.getAttribute(file, "unix:nlink");
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return 1;
+        }
+    }
+
+    // dates every term entry back by millis, as if that much time had passed
+    private static void age(Path dir, long millis) throws IOException {
+        List<Path> entries;
+        try (Stream<Path> files = Files.list(dir.resolve("terms"))) {
+            entries = files.collect(Collectors.toList());
+        }
+        for (Path entry : entries) {
+            long modified = Files.getLastModifiedTime(entry).toMillis();
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(modified - millis));
+        }
+    }
+}
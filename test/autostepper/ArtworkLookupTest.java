@@ -0,0 +1,153 @@
+package autostepper;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The artwork lookup against a local stand-in for the image search: its result
+ * ends up in the chart's header, it's still going while the song is decoded,
+ * and a song that can't be analyzed leaves nothing in the output folder.
+ */
+class ArtworkLookupTest {
+
+    private static final byte[] IMAGE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 1, 2, 3 };
+    private static final float SAMPLE_RATE = 44100f;
+    private static final int SONG_SECONDS = 20;
+    // only runs out if the song is never decoded while the lookup waits
+    private static final long DECODE_TIMEOUT_MILLIS = 60_000;
+
+    private static HttpServer server;
+    private static String searchUrl;
+
+    @BeforeAll
+    static void startSearch() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/search", exchange ->
+                respond(exchange, "text/html", "<html><body><img data-src=\"/img.png\"></body></html>".getBytes(StandardCharsets.UTF_8)));
+        server.createContext("/img.png", exchange -> respond(exchange, "image/png", IMAGE));
+        server.start();
+        searchUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/search";
+    }
+
+    @AfterAll
+    static void stopSearch() {
+        if (server != null) server.stop(0);
+    }
+
+    @Test
+    void artworkIsInTheHeaderAndLookedUpDuringAnalysis(@TempDir Path dir) throws IOException {
+        File song = dir.resolve("clicks.wav").toFile();
+        writeSong(song);
+        Path out = dir.resolve("out");
+        SongTiming timing = new SongTiming(song.getName());
+        AtomicBoolean decodedFirst = new AtomicBoolean();
+        // answers only once the song has been decoded, which can't happen if the
+        // song waits for the lookup before decoding
+        ArtworkCache.Search afterDecoding = (term, destination) -> {
+            decodedFirst.set(awaitStage(timing, "decode"));
+            return GoogleImageSearch.findAndSaveImage(searchUrl, term, destination.getAbsolutePath());
+        };
+
+        assertTrue(new AutoStepper(config(), new RunReport(null), afterDecoding)
+                .analyzeUsingAudioRecordingStream(song, -1f, out.toString(), timing));
+
+        assertTrue(decodedFirst.get(), "the lookup finished before the song was decoded");
+        Path folder = out.resolve("clicks.wav_dir");
+        String sm = Files.readString(folder.resolve("clicks.wav.sm"), StandardCharsets.UTF_8);
+        assertTrue(sm.contains("#BANNER:clicks.wav_img.png;"), "no banner in\n" + sm);
+        assertTrue(sm.contains("#BACKGROUND:clicks.wav_img.png;"), "no background in\n" + sm);
+        assertArrayEquals(IMAGE, Files.readAllBytes(folder.resolve("clicks.wav_img.png")));
+    }
+
+    @Test
+    void songThatFailsToDecodeGetsNoFolder(@TempDir Path dir) throws IOException {
+        File song = dir.resolve("broken.wav").toFile();
+        byte[] noise = new byte[64 * 1024];
+        new SplittableRandom(3).nextBytes(noise);
+        Files.write(song.toPath(), noise);
+        Path out = dir.resolve("out");
+        RunReport report = new RunReport(null);
+
+        new AutoStepper(config(), report, ArtworkLookupTest::search).analyzeUsingAudioRecordingStream(song, -1f, out.toString());
+
+        assertFalse(report.songs().get(0).succeeded());
+        assertFalse(Files.exists(out.resolve("broken.wav_dir")), "a folder for a song without a chart");
+    }
+
+    private static boolean search(String term, File destination) throws IOException {
+        return GoogleImageSearch.findAndSaveImage(searchUrl, term, destination.getAbsolutePath());
+    }
+
+    // whether timing recorded the stage before the timeout
+    private static boolean awaitStage(SongTiming timing, String stage) {
+        long deadline = System.currentTimeMillis() + DECODE_TIMEOUT_MILLIS;
+        while (!timing.stages().containsKey(stage)) {
+            if (System.currentTimeMillis() > deadline) return false;
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static AutoStepperConfig config() {
+        // fixed seed and no analysis cache, so each run analyzes and the charts don't depend on the file's hash
+        return new AutoStepperConfig(170f, 70f, 0.05f, 0.0f, -0.11, false, false, false, true, 0.0f, 1, 1L, false,
+                AutoStepperConfig.MusicLink.COPY);
+    }
+
+    // clicks at 120 BPM over a little noise, 16-bit mono
+    private static void writeSong(File file) throws IOException {
+        int frames = (int) (SAMPLE_RATE * SONG_SECONDS);
+        int beat = (int) (SAMPLE_RATE / 2);
+        byte[] pcm = new byte[frames * 2];
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < frames; i++) {
+            int sinceBeat = i % beat;
+            double click = sinceBeat < 2000 ? Math.sin(sinceBeat * 0.3) * Math.exp(-sinceBeat / 400.0) : 0;
+            int sample = (int) ((click * 0.8 + (random.nextDouble() - 0.5) * 0.02) * Short.MAX_VALUE);
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+        try (AudioInputStream in = new AudioInputStream(new ByteArrayInputStream(pcm), format, frames)) {
+            AudioSystem.write(in, AudioFileFormat.Type.WAVE, file);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, String type, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
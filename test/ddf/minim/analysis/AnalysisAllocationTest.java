@@ -0,0 +1,142 @@
+/*
+ *  Copyright (c) 2007 - 2008 by Damien Di Fede <ddf@compartmental.net>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package ddf.minim.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The per-chunk analysis path must not allocate once it is running: beat
+ * detection in both modes, as AutoStepper runs it on every chunk of every song,
+ * and a complex FFT forward and back. Counted with the JVM's per-thread
+ * allocation counter after a warmup.
+ * <p>
+ * The code itself allocates nothing, which is exactly 0 bytes when interpreted
+ * (-Xint). With the JIT on, compiling and deoptimizing now and then puts a few
+ * hundred bytes on the thread's count, so the check allows less than a byte
+ * per call on average; the smallest object a call could leak is 16 bytes.
+ */
+class AnalysisAllocationTest
+{
+  private static final int CHUNK = 512;
+  private static final float SAMPLE_RATE = 44100f;
+  private static final int WARMUP = 20000;
+  private static final int MEASURED = 20000;
+
+  private static com.sun.management.ThreadMXBean threads;
+
+  @BeforeAll
+  static void allocationCounter()
+  {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean,
+        "this JVM can't count allocated bytes");
+    threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported(), "this JVM can't count allocated bytes");
+    threads.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  @Test
+  void beatDetectionDoesNotAllocatePerChunk()
+  {
+    // the detectors and sensitivities of AutoStepper's analysis
+    BeatDetect freq = new BeatDetect(BeatDetect.FREQ_ENERGY, CHUNK, SAMPLE_RATE);
+    BeatDetect energy = new BeatDetect(BeatDetect.SOUND_ENERGY, CHUNK, SAMPLE_RATE);
+    freq.addSensitivity(0.05);
+    freq.addSensitivity(0.35);
+    energy.addSensitivity(0.05);
+    energy.addSensitivity(0.35);
+    float[] data = new float[CHUNK];
+    float[] previous = new float[freq.specSize()];
+    SplittableRandom random = new SplittableRandom(1);
+
+    detect(freq, energy, data, previous, random, 0, WARMUP);
+    long before = threads.getCurrentThreadAllocatedBytes();
+    detect(freq, energy, data, previous, random, WARMUP, MEASURED);
+    long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+    assertTrue(allocated < MEASURED, allocated + " bytes allocated over " + MEASURED + " chunks");
+  }
+
+  @Test
+  void complexFFTDoesNotAllocate()
+  {
+    FFT fft = new FFT(1024, SAMPLE_RATE);
+    float[] real = new float[1024];
+    float[] imag = new float[1024];
+    float[] out = new float[1024];
+    SplittableRandom random = new SplittableRandom(2);
+    for (int i = 0; i < real.length; i++)
+    {
+      real[i] = (float) (random.nextDouble() - 0.5);
+    }
+
+    transform(fft, real, imag, out, WARMUP / 10);
+    long before = threads.getCurrentThreadAllocatedBytes();
+    transform(fft, real, imag, out, MEASURED / 10);
+    long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+    assertTrue(allocated < MEASURED / 10, allocated + " bytes allocated over " + MEASURED / 10 + " forward and inverse transforms");
+  }
+
+  // what AutoStepper's analyzeChunk does with the detectors on each chunk
+  private static int detect(BeatDetect freq, BeatDetect energy, float[] data, float[] previous,
+      SplittableRandom random, int first, int count)
+  {
+    int beats = 0;
+    for (int chunk = first; chunk < first + count; chunk++)
+    {
+      for (int i = 0; i < data.length; i++)
+      {
+        data[i] = (float) (random.nextDouble() - 0.5);
+      }
+      double time = chunk * (CHUNK / SAMPLE_RATE);
+      freq.detect(data, time);
+      energy.detect(data, time);
+      for (int i = 0; i < previous.length; i++)
+      {
+        float band = freq.getBand(i);
+        if (band > previous[i])
+        {
+          beats++;
+        }
+        previous[i] = band;
+      }
+      if (freq.isKick() || freq.isSnare() || freq.isHat() || energy.isOnset())
+      {
+        beats++;
+      }
+    }
+    return beats;
+  }
+
+  private static void transform(FFT fft, float[] real, float[] imag, float[] out, int count)
+  {
+    for (int i = 0; i < count; i++)
+    {
+      fft.forward(real, imag);
+      fft.inverse(real, imag, out);
+    }
+  }
+}
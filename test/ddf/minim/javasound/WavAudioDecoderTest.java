@@ -0,0 +1,98 @@
+/*
+ *  Copyright (c) 2007 - 2008 by Damien Di Fede <ddf@compartmental.net>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package ddf.minim.javasound;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Closing a mapped WAV decoder unmaps the file at once, rather than leaving it
+ * to the garbage collector. Checked in the process's memory map, so Linux only.
+ */
+class WavAudioDecoderTest
+{
+  private static final Path MAPS = Paths.get( "/proc/self/maps" );
+
+  @Test
+  void closeUnmapsTheFile(@TempDir Path dir) throws IOException
+  {
+    assumeTrue( Files.isReadable( MAPS ), "no /proc/self/maps to look at" );
+    File wav = dir.resolve( "unmap.wav" ).toFile();
+    writeWav( wav, 44100 );
+
+    WavAudioDecoder decoder = WavAudioDecoder.open( wav );
+    assertNotNull( decoder );
+    float[] mono = new float[512];
+    assertEquals( 512, decoder.readMono( mono, 0, mono.length ) );
+    assertTrue( mapped( wav ), "the samples aren't mapped" );
+
+    decoder.close();
+    assertFalse( mapped( wav ), "still mapped after close" );
+    assertEquals( 0, decoder.readMono( mono, 0, mono.length ) );
+    decoder.close();
+  }
+
+  private static boolean mapped(File file) throws IOException
+  {
+    String path = file.getCanonicalPath();
+    for ( String line : Files.readAllLines( MAPS ) )
+    {
+      if ( line.endsWith( path ) )
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // a second of a quiet ramp, 16 bit mono
+  private static void writeWav(File file, int frames) throws IOException
+  {
+    byte[] pcm = new byte[frames * 2];
+    for ( int i = 0; i < frames; i++ )
+    {
+      int sample = ( i % 256 ) * 16;
+      pcm[2 * i] = (byte)sample;
+      pcm[2 * i + 1] = (byte)( sample >> 8 );
+    }
+    AudioFormat format = new AudioFormat( 44100f, 16, 1, true, false );
+    try ( AudioInputStream in = new AudioInputStream( new ByteArrayInputStream( pcm ), format, frames ) )
+    {
+      AudioSystem.write( in, AudioFileFormat.Type.WAVE, file );
+    }
+  }
+}